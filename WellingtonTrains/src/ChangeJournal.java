@@ -0,0 +1,338 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+/**
+ * ChangeJournal
+ * Keeps edits to the train network (new services, stations added to lines) across
+ * restarts, without rewriting the data files.
+ * The journal directory holds
+ * - network.snapshot: the whole network at some point (see TrainNetwork.writeSnapshot)
+ * - network.journal: every edit since the snapshot, appended one record at a time.
+ *   Each record is its length, a CRC32 checksum, then the edit. Every edit holds the
+ *   version of the network it makes (see TrainNetwork.getVersion).
+ * Opening the journal loads the snapshot and replays the edits after it, which is much
+ * faster than reading the data files. Edits the snapshot already contains (if the program
+ * stopped part way through compacting) are skipped. A record that was only partly written
+ * when the program stopped fails its checksum, and it and anything after it are dropped.
+ * The data files are read the first time, and whenever they have changed since the snapshot
+ * was written; the old snapshot and journal are then kept as .old files, since their edits
+ * were made to the old data.
+ *
+ * Edits are group committed: addTrainService and addStation only buffer the record, and
+ * commit() writes every buffered record with one write and one sync, so a bulk edit costs
+ * one sync rather than one per edit. Threads that commit while another thread's sync is in
+ * progress are covered by the next one.
+ * A batch stays buffered until it has been written and synced. If the write fails, the
+ * journal file is cut back to where the batch started, and the next commit tries again;
+ * if it can't even be cut back, the journal is failed and every later commit throws.
+ * Once the journal has COMPACT_AFTER records, commit() writes a new snapshot and empties it.
+ */
+
+public class ChangeJournal implements Closeable{
+    public static final int COMPACT_AFTER = 10000;
+    private static final byte ADD_SERVICE = 1;
+    private static final byte ADD_STATION = 2;
+
+    private File snapshotFile;
+    private File journalFile;
+    private TrainNetwork network;
+    private FileChannel channel;
+    private int records;   // records in the journal file
+
+    private final Object bufferLock = new Object();
+    private final Object commitLock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private long appended;   // number of the last buffered record
+    private long durable;    // number of the last record synced to disk
+    private IOException failure;   // why the journal file can no longer be trusted, null if it can
+
+    private ChangeJournal(File journalDirectory){
+        this.snapshotFile = new File(journalDirectory, "network.snapshot");
+        this.journalFile = new File(journalDirectory, "network.journal");
+    }
+
+    /**
+     * Open the journal in a directory: load the snapshot and replay the journal, or if there is
+     * no snapshot yet, load the data files in the data directory and write the first snapshot.
+     */
+    public static ChangeJournal open(File dataDirectory, File journalDirectory, boolean strict) throws IOException{
+        journalDirectory.mkdirs();
+        ChangeJournal journal = new ChangeJournal(journalDirectory);
+        if (journal.snapshotFile.exists()){
+            journal.network = TrainNetwork.readSnapshot(journal.snapshotFile, dataDirectory);
+            if (journal.network.getDataChecksum() != TrainNetwork.dataChecksum(dataDirectory)){
+                System.out.println("The data files have changed since "+journal.snapshotFile+" was written: loading them again"
+                    +" (the edits made to the old data are kept in the .old files)");
+                journal.setAside(journal.snapshotFile);
+                journal.setAside(journal.journalFile);
+                journal.network = null;
+            }
+            else if (strict && !journal.network.getLoadReport().isValid()){
+                // the same as loading the data files in strict mode
+                throw new IOException("Invalid data: "+journal.network.getLoadReport().getProblems().get(0));
+            }
+        }
+        if (journal.network == null){
+            journal.network = TrainNetwork.load(dataDirectory, strict);
+            journal.writeSnapshot();
+            Files.deleteIfExists(journal.journalFile.toPath());
+        }
+        journal.channel = FileChannel.open(journal.journalFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal.replay();
+        return journal;
+    }
+
+    private void setAside(File file) throws IOException{
+        if (file.exists()){
+            Files.move(file.toPath(), new File(file.getPath()+".old").toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public TrainNetwork getNetwork(){
+        return network;
+    }
+
+    /**
+     * Number of edits in the journal since the last snapshot
+     */
+    public int getRecordCount(){
+        return records;
+    }
+
+    //Edits
+    /**
+     * Add a service to a line, and buffer the edit.  Call commit() to make it permanent.
+     * Returns the number of the edit.
+     */
+    public long addTrainService(String lineName, int[] times){
+        TrainService service;
+        long edit;
+        synchronized (bufferLock){
+            service = network.addTrainService(lineName, times, false);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeLong(network.getVersion());
+                out.writeByte(ADD_SERVICE);
+                out.writeUTF(lineName);
+                out.writeShort(times.length);
+                for (int time : times){ out.writeShort(time); }
+            }
+            catch (IOException ex){
+                throw new UncheckedIOException(ex);   // can't happen writing to memory
+            }
+            edit = buffer(bytes.toByteArray());
+        }
+        // listeners (eg the departure boards) are told without holding the lock
+        network.fireLineChanged(service.getTrainLine());
+        return edit;
+    }
+
+    /**
+     * Add a station to the end of a line, and buffer the edit.  Call commit() to make it permanent.
+     * Returns the number of the edit.
+     */
+    public long addStation(String lineName, String stationName){
+        TrainLine line;
+        long edit;
+        synchronized (bufferLock){
+            line = network.addStation(lineName, stationName, false);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeLong(network.getVersion());
+                out.writeByte(ADD_STATION);
+                out.writeUTF(lineName);
+                out.writeUTF(stationName);
+            }
+            catch (IOException ex){
+                throw new UncheckedIOException(ex);
+            }
+            edit = buffer(bytes.toByteArray());
+        }
+        network.fireLineChanged(line);
+        return edit;
+    }
+
+    /**
+     * Add a record (length, checksum, edit) to the buffer; called holding bufferLock
+     */
+    private long buffer(byte[] edit){
+        CRC32 crc = new CRC32();
+        crc.update(edit);
+        DataOutputStream out = new DataOutputStream(pending);
+        try {
+            out.writeInt(edit.length);
+            out.writeInt((int)crc.getValue());
+            out.write(edit);
+        }
+        catch (IOException ex){
+            throw new UncheckedIOException(ex);
+        }
+        return ++appended;
+    }
+
+    /**
+     * Make every edit made so far permanent
+     */
+    public void commit() throws IOException{
+        long upTo;
+        synchronized (bufferLock){ upTo = appended; }
+        commit(upTo);
+    }
+
+    /**
+     * Make every edit up to the given edit number permanent.  Returns straight away
+     * if another thread's commit has already covered it.
+     */
+    public void commit(long edit) throws IOException{
+        synchronized (commitLock){
+            if (failure != null){ throw new IOException("Journal failed earlier: "+failure.getMessage(), failure); }
+            if (durable >= edit){ return; }
+            byte[] batch;
+            long upTo;
+            int count;
+            synchronized (bufferLock){
+                batch = pending.toByteArray();
+                upTo = appended;
+                count = (int)(appended - durable);
+            }
+            long start = channel.size();
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(batch);
+                while (buffer.hasRemaining()){
+                    channel.write(buffer, start + buffer.position());
+                }
+                channel.force(false);
+            }
+            catch (IOException ex){
+                // the batch is still buffered; drop whatever part of it reached the file
+                try {
+                    channel.truncate(start);
+                }
+                catch (IOException truncateEx){
+                    ex.addSuppressed(truncateEx);
+                    failure = ex;
+                }
+                throw ex;
+            }
+            synchronized (bufferLock){
+                // keep the records buffered since the batch was taken
+                byte[] all = pending.toByteArray();
+                pending.reset();
+                pending.write(all, batch.length, all.length - batch.length);
+            }
+            durable = upTo;
+            records += count;
+            if (records >= COMPACT_AFTER){
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Write a new snapshot of the network and empty the journal.
+     * Buffered edits are already in the network, so the snapshot makes them permanent too.
+     * The snapshot is written to a temporary file and renamed, so a crash part way through
+     * leaves the old snapshot and journal as they were.
+     */
+    public void compact() throws IOException{
+        synchronized (commitLock){
+            synchronized (bufferLock){
+                writeSnapshot();
+                channel.truncate(0);
+                channel.force(true);
+                pending.reset();
+                durable = appended;
+                records = 0;
+                failure = null;   // the new snapshot holds every edit, and the journal is empty
+            }
+        }
+    }
+
+    private void writeSnapshot() throws IOException{
+        File temp = new File(snapshotFile.getPath()+".tmp");
+        network.writeSnapshot(temp);
+        Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Apply the edits in the journal file to the network, dropping a damaged tail.
+     * Edits the snapshot already contains are skipped; an edit that is not the next
+     * version of the network means the journal is damaged from there on.
+     */
+    private void replay() throws IOException{
+        long size = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate((int)size);
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) > 0){}
+        buffer.flip();
+        int good = 0;
+        while (buffer.remaining() >= 8){
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()){ break; }
+            byte[] edit = new byte[length];
+            buffer.get(edit);
+            CRC32 crc = new CRC32();
+            crc.update(edit);
+            if ((int)crc.getValue() != checksum){ break; }
+            if (!apply(edit)){ break; }
+            good = buffer.position();
+            records++;
+        }
+        if (good < size){
+            System.out.println("Dropping "+(size - good)+" damaged bytes from the end of "+journalFile);
+            channel.truncate(good);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Apply one edit, unless the network already has it.
+     * Returns false if the edit is out of sequence.
+     */
+    private boolean apply(byte[] edit) throws IOException{
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(edit));
+        long version = in.readLong();
+        if (version <= network.getVersion()){ return true; }   // already in the snapshot
+        if (version != network.getVersion() + 1){ return false; }
+        byte type = in.readByte();
+        String lineName = in.readUTF();
+        if (type == ADD_SERVICE){
+            int[] times = new int[in.readShort()];
+            for (int i = 0; i < times.length; i++){ times[i] = in.readShort(); }
+            network.addTrainService(lineName, times);
+        }
+        else if (type == ADD_STATION){
+            network.addStation(lineName, in.readUTF());
+        }
+        else {
+            throw new IOException("Unknown edit type "+type+" in "+journalFile);
+        }
+        return true;
+    }
+
+    /**
+     * Commit any buffered edits and close the journal file
+     */
+    public void close() throws IOException{
+        commit();
+        channel.close();
+    }
+
+    public String toString(){
+        return "journal ("+records+" edits since snapshot) for "+network;
+    }
+
+}
@@ -0,0 +1,383 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * DepartureBoard
+ * Live "next departures" boards for station screens. A screen subscribes to a Station
+ * (optionally only one TrainLine) and is sent the rows that change, instead of polling.
+ *
+ * Screens showing the same station and line share one board, which is only worked out
+ * again when it can have changed:
+ * - when its first train leaves. Boards wait in a timer wheel with one slot per minute
+ *   of the day, in the slot after their first departure, and one shared clock empties
+ *   a slot each minute. So each minute only the boards whose first train has just gone
+ *   are touched, however many boards there are.
+ * - when the timetable of one of its lines changes (timetableChanged)
+ * Listeners are only called if the rows of their board actually changed, with the rows
+ * that went and the rows that came.
+ *
+ * Times are minutes counted from the start of the clock's first day, so the boards keep
+ * going past midnight.
+ * Updates are worked out holding the lock on the boards, but queued and sent to the listeners
+ * after letting go of it, so a slow listener doesn't hold up the boards (or a thread editing
+ * the timetable). They are sent in the order they were made, one at a time: by the thread
+ * that made them (the clock thread, or the one that changed the timetable), or by a thread
+ * already sending.
+ */
+
+public class DepartureBoard{
+    private static final int DAY = Timetable.MINUTES_PER_DAY;
+
+    private int rowCount;   // rows on each board
+    private int now;        // minutes
+    private Map<String, Board> boards = new HashMap<String, Board>();                  // by station and line filter
+    private Map<TrainLine, Set<Board>> boardsByLine = new HashMap<TrainLine, Set<Board>>();
+    private List<Set<Board>> wheel = new ArrayList<Set<Board>>();                       // one slot per minute of the day
+    private ScheduledExecutorService clock;
+    private Queue<Update> updates = new ConcurrentLinkedQueue<Update>();   // made holding the lock, not yet sent
+    private ReentrantLock sending = new ReentrantLock();
+
+    /**
+     * Make boards with the given number of rows, starting at the given time in minutes
+     */
+    public DepartureBoard(int rowCount, int now){
+        this.rowCount = rowCount;
+        this.now = now;
+        for (int m = 0; m < DAY; m++){
+            wheel.add(new HashSet<Board>());
+        }
+    }
+
+    /**
+     * Subscribe to the next departures from a station, on one line or (if line is null)
+     * on all its lines. The listener is sent the whole board straight away, then the changes.
+     */
+    public Subscription subscribe(Station station, TrainLine line, Listener listener){
+        Subscription subscription;
+        synchronized (this){
+            String key = station.getName()+"|"+(line == null ? "" : line.getName());
+            Board board = boards.get(key);
+            if (board == null){
+                board = new Board(key, station, line);
+                boards.put(key, board);
+                for (TrainLine l : board.getLines()){
+                    boardsByLine.computeIfAbsent(l, b -> new HashSet<Board>()).add(board);
+                }
+                board.refresh();
+            }
+            board.listeners.add(listener);
+            updates.add(new Update(board, listener, Collections.<Row>emptyList(), board.getRows()));
+            subscription = new Subscription(board, listener);
+        }
+        send();
+        return subscription;
+    }
+
+    private synchronized void unsubscribe(Board board, Listener listener){
+        board.listeners.remove(listener);
+        if (!board.listeners.isEmpty() || boards.get(board.key) != board){ return; }
+        boards.remove(board.key);
+        for (TrainLine l : board.getLines()){
+            Set<Board> lineBoards = boardsByLine.get(l);
+            if (lineBoards != null){ lineBoards.remove(board); }
+        }
+        if (board.due != -1){ wheel.get(board.due % DAY).remove(board); }
+    }
+
+    /**
+     * Move the clock on to the given time in minutes, refreshing the boards whose
+     * first train has left since the last time
+     */
+    public void advanceTo(int minutes){
+        synchronized (this){
+            if (minutes <= now){ return; }
+            int from = now + 1;
+            now = minutes;
+            if (minutes - from >= DAY){
+                // more than a day has gone: every board is due
+                for (Board board : new ArrayList<Board>(boards.values())){ board.refresh(); }
+            }
+            else {
+                for (int m = from; m <= minutes; m++){
+                    Set<Board> slot = wheel.get(m % DAY);
+                    if (slot.isEmpty()){ continue; }
+                    for (Board board : new ArrayList<Board>(slot)){
+                        if (board.due <= now){ board.refresh(); }
+                    }
+                }
+            }
+        }
+        send();
+    }
+
+    /**
+     * Tell the boards that a line's timetable has changed (eg a service was added);
+     * only the boards showing that line are worked out again
+     */
+    public void timetableChanged(TrainLine line){
+        synchronized (this){
+            Set<Board> lineBoards = boardsByLine.get(line);
+            if (lineBoards == null){ return; }
+            for (Board board : new ArrayList<Board>(lineBoards)){
+                board.refresh();
+            }
+        }
+        send();
+    }
+
+    /**
+     * Send the queued updates to their listeners, in order, not holding the lock on the boards.
+     * Only one thread sends at a time; if another is sending, it sends these too (it looks
+     * at the queue again after letting go of the sending lock, so none are left behind).
+     * Updates for a subscription cancelled since they were made are dropped.
+     */
+    private void send(){
+        while (!updates.isEmpty() && sending.tryLock()){
+            try {
+                Update update;
+                while ((update = updates.poll()) != null){
+                    if (update.board.listeners.contains(update.listener)){
+                        update.listener.update(update.board.station, update.board.filter, update.removed, update.added);
+                    }
+                }
+            }
+            finally {
+                sending.unlock();
+            }
+        }
+    }
+
+    public synchronized int getNow(){
+        return now;
+    }
+
+    /**
+     * Number of distinct boards (subscriptions to the same station and line share a board)
+     */
+    public synchronized int getBoardCount(){
+        return boards.size();
+    }
+
+    /**
+     * Start a clock thread that moves the boards on in real time
+     */
+    public synchronized void start(){
+        if (clock != null){ return; }
+        clock = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "departure-board-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+        clock.scheduleAtFixedRate(() -> {
+            try {
+                advanceTo(currentMinutes());
+            }
+            catch (RuntimeException ex){
+                // a failing listener must not stop the clock for everyone else
+                ex.printStackTrace();
+            }
+        }, 0, 1, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stop(){
+        if (clock != null){
+            clock.shutdown();
+            clock = null;
+        }
+    }
+
+    /**
+     * The time now, in minutes counted from the start of 1 January 1970
+     */
+    public static int currentMinutes(){
+        LocalTime time = LocalTime.now();
+        return (int)(LocalDate.now().toEpochDay()*DAY) + time.getHour()*60 + time.getMinute();
+    }
+
+    /**
+     * Listener
+     * Receives the changes to one board
+     */
+    public interface Listener{
+        void update(Station station, TrainLine line, List<Row> removed, List<Row> added);
+    }
+
+    /**
+     * Subscription
+     * Returned by subscribe(), to cancel the subscription
+     */
+    public class Subscription{
+        private Board board;
+        private Listener listener;
+
+        private Subscription(Board board, Listener listener){
+            this.board = board;
+            this.listener = listener;
+        }
+
+        public void cancel(){
+            unsubscribe(board, listener);
+        }
+    }
+
+    /**
+     * Row
+     * One departure on a board: a service of a line, and the time it leaves the station
+     */
+    public static class Row{
+        private TrainLine line;
+        private TrainService service;   // not its index, which moves when a service is added before it
+        private int minutes;
+
+        public Row(TrainLine line, TrainService service, int minutes){
+            this.line = line;
+            this.service = service;
+            this.minutes = minutes;
+        }
+
+        public TrainLine getLine(){
+            return line;
+        }
+
+        public TrainService getService(){
+            return service;
+        }
+
+        /**
+         * 24-hour time the service leaves
+         */
+        public int getTime(){
+            return Timetable.toClockTime(minutes);
+        }
+
+        public int getMinutes(){
+            return minutes;
+        }
+
+        public boolean equals(Object other){
+            if (!(other instanceof Row)){ return false; }
+            Row row = (Row)other;
+            return row.line == line && row.service == service && row.minutes == minutes;
+        }
+
+        public int hashCode(){
+            return Objects.hash(line.getName(), System.identityHashCode(service), minutes);
+        }
+
+        public String toString(){
+            return String.format("%04d %s", getTime(), line.getName());
+        }
+    }
+
+    /**
+     * Board
+     * The rows shared by every subscription to a station and line filter
+     */
+    private class Board{
+        private String key;
+        private Station station;
+        private TrainLine filter;
+        private List<Listener> listeners = new CopyOnWriteArrayList<Listener>();   // read when sending, without the lock
+        private List<Row> rows = new ArrayList<Row>();
+        private int due = -1;   // minutes when the board must next be worked out, -1 if not in the wheel
+
+        private Board(String key, Station station, TrainLine filter){
+            this.key = key;
+            this.station = station;
+            this.filter = filter;
+        }
+
+        private Collection<TrainLine> getLines(){
+            return filter == null ? station.getTrainLines() : Collections.singleton(filter);
+        }
+
+        private List<Row> getRows(){
+            return Collections.unmodifiableList(rows);
+        }
+
+        /**
+         * Work out the rows again, queue the differences for the listeners, and put
+         * the board back in the wheel for when its first train leaves
+         */
+        private void refresh(){
+            List<Row> next = departures();
+            Set<Row> nextSet = new HashSet<Row>(next);
+            Set<Row> oldSet = new HashSet<Row>(rows);
+            List<Row> removed = new ArrayList<Row>();
+            List<Row> added = new ArrayList<Row>();
+            for (Row row : rows){ if (!nextSet.contains(row)){ removed.add(row); } }
+            for (Row row : next){ if (!oldSet.contains(row)){ added.add(row); } }
+            rows = next;
+
+            if (due != -1){ wheel.get(due % DAY).remove(this); }
+            // when the first train has left; or if there are none, at the start of the next day
+            due = rows.isEmpty() ? (now/DAY + 1)*DAY : rows.get(0).minutes + 1;
+            wheel.get(due % DAY).add(this);
+
+            if (!removed.isEmpty() || !added.isEmpty()){
+                for (Listener listener : listeners){
+                    updates.add(new Update(this, listener, removed, added));
+                }
+            }
+        }
+
+        /**
+         * The next rowCount departures from the station at or after now, across its lines.
+         * Services that started yesterday and run past midnight are included, and late at
+         * night the first services of tomorrow.
+         * Each line's timetable is searched from the first departure after now, and only
+         * rowCount services are read, unless services were added out of order at the stop.
+         */
+        private List<Row> departures(){
+            List<Row> found = new ArrayList<Row>();
+            int today = (now/DAY)*DAY;
+            for (TrainLine line : getLines()){
+                int stop = line.getStations().indexOf(station);
+                if (stop == -1){ continue; }
+                Timetable timetable = line.getTimetable();
+                if (stop >= timetable.getStopCount()){ continue; }
+                boolean inOrder = timetable.isInOrder(stop);
+                for (int start = today - DAY; start <= today + DAY; start += DAY){
+                    int count = 0;
+                    int service = inOrder ? timetable.firstDeparture(stop, now - start) : 0;
+                    for (; service != -1 && service < timetable.size() && (!inOrder || count < rowCount); service++){
+                        int minutes = timetable.getMinutes(service, stop);
+                        if (minutes == -1 || minutes < now - start){ continue; }
+                        found.add(new Row(line, line.getTrainServices().get(service), start + minutes));
+                        count++;
+                    }
+                }
+            }
+            found.sort(Comparator.comparingInt(Row::getMinutes));
+            return new ArrayList<Row>(found.subList(0, Math.min(rowCount, found.size())));
+        }
+    }
+
+    /**
+     * Update
+     * The rows that went and came on a board, waiting to be sent to one listener
+     */
+    private class Update{
+        private Board board;
+        private Listener listener;
+        private List<Row> removed;
+        private List<Row> added;
+
+        private Update(Board board, Listener listener, List<Row> removed, List<Row> added){
+            this.board = board;
+            this.listener = listener;
+            this.removed = removed;
+            this.added = added;
+        }
+    }
+
+}
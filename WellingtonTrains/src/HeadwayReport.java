@@ -0,0 +1,206 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * HeadwayReport
+ * How often trains leave each Station, for each TrainLine and each hour of the day:
+ * - the number of departures
+ * - the average and the longest headway (minutes since the previous train on the same line)
+ * - the first and last train of the day
+ * A headway is counted in the hour of the later of the two trains.
+ *
+ * The figures for a line are worked out in one pass over its timetable, into arrays of
+ * ints (one slot per stop and hour), so the time taken is linear in the number of
+ * stop times. When a line is changed or reloaded, refresh() recomputes just that line;
+ * it can be registered as a TrainNetwork.ChangeListener so edits are picked up.
+ * Headways are taken between departures in time order, sorting a stop's departures
+ * first if services were ever out of order there.
+ */
+
+public class HeadwayReport{
+    public static final int HOURS = 24;
+
+    private Map<TrainLine, LineStats> stats = new ConcurrentHashMap<TrainLine, LineStats>();
+
+    /**
+     * Work out the figures for each of the lines
+     */
+    public HeadwayReport(Collection<TrainLine> lines){
+        for (TrainLine line : lines){
+            refresh(line);
+        }
+    }
+
+    /**
+     * Work out (again) the figures for one line
+     */
+    public void refresh(TrainLine line){
+        stats.put(line, new LineStats(line));
+    }
+
+    /**
+     * Forget about a line that has been removed
+     */
+    public void remove(TrainLine line){
+        stats.remove(line);
+    }
+
+    //Getters
+    /**
+     * Number of departures from a station on a line in an hour (0-23)
+     */
+    public int getDepartures(Station station, TrainLine line, int hour){
+        LineStats lineStats = stats.get(line);
+        int stop = lineStats == null ? -1 : lineStats.stopOf(station);
+        return stop == -1 ? 0 : lineStats.departures[stop*HOURS + hour];
+    }
+
+    /**
+     * Average minutes between trains leaving a station on a line, for the trains
+     * leaving in an hour (0-23).  -1 if there are no headways in that hour.
+     */
+    public double getAverageHeadway(Station station, TrainLine line, int hour){
+        LineStats lineStats = stats.get(line);
+        int stop = lineStats == null ? -1 : lineStats.stopOf(station);
+        if (stop == -1 || lineStats.headways[stop*HOURS + hour] == 0){ return -1; }
+        return lineStats.totalHeadway[stop*HOURS + hour] / (double)lineStats.headways[stop*HOURS + hour];
+    }
+
+    /**
+     * Longest minutes between trains leaving a station on a line, for the trains
+     * leaving in an hour (0-23).  -1 if there are no headways in that hour.
+     */
+    public int getMaxHeadway(Station station, TrainLine line, int hour){
+        LineStats lineStats = stats.get(line);
+        int stop = lineStats == null ? -1 : lineStats.stopOf(station);
+        if (stop == -1 || lineStats.headways[stop*HOURS + hour] == 0){ return -1; }
+        return lineStats.maxHeadway[stop*HOURS + hour];
+    }
+
+    /**
+     * 24-hour time of the first train from a station on a line, -1 if none
+     */
+    public int getFirst(Station station, TrainLine line){
+        LineStats lineStats = stats.get(line);
+        int stop = lineStats == null ? -1 : lineStats.stopOf(station);
+        return stop == -1 || lineStats.first[stop] == -1 ? -1 : Timetable.toClockTime(lineStats.first[stop]);
+    }
+
+    /**
+     * 24-hour time of the last train from a station on a line, -1 if none
+     */
+    public int getLast(Station station, TrainLine line){
+        LineStats lineStats = stats.get(line);
+        int stop = lineStats == null ? -1 : lineStats.stopOf(station);
+        return stop == -1 || lineStats.last[stop] == -1 ? -1 : Timetable.toClockTime(lineStats.last[stop]);
+    }
+
+    /**
+     * Report for one station: for each line through it (in alphabetical order) the first
+     * and last trains, then one row per hour with trains
+     */
+    public String report(Station station){
+        StringBuilder sb = new StringBuilder();
+        sb.append(station.getName()).append('\n');
+        SortedMap<String, TrainLine> lines = new TreeMap<String, TrainLine>();
+        for (TrainLine line : station.getTrainLines()){ lines.put(line.getName(), line); }
+        for (TrainLine line : lines.values()){
+            if (getFirst(station, line) == -1){ continue; }
+            sb.append("  ").append(line.getName()).append(": first ").append(getFirst(station, line))
+              .append(", last ").append(getLast(station, line)).append('\n');
+            for (int hour = 0; hour < HOURS; hour++){
+                int departures = getDepartures(station, line, hour);
+                if (departures == 0){ continue; }
+                sb.append(String.format("    %02d:00  %2d trains", hour, departures));
+                if (getMaxHeadway(station, line, hour) != -1){
+                    sb.append(String.format(", every %.1f min (longest wait %d min)",
+                        getAverageHeadway(station, line, hour), getMaxHeadway(station, line, hour)));
+                }
+                sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Report for all the stations, in alphabetical order
+     */
+    public String report(Collection<Station> stations){
+        SortedMap<String, Station> sorted = new TreeMap<String, Station>();
+        for (Station station : stations){ sorted.put(station.getName(), station); }
+        StringBuilder sb = new StringBuilder();
+        for (Station station : sorted.values()){
+            sb.append(report(station));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * LineStats
+     * The figures for every stop of one line, in flat arrays indexed by stop*HOURS + hour
+     */
+    private static class LineStats{
+        private List<Station> stations;
+        private int[] departures;
+        private int[] headways;       // number of headways
+        private int[] totalHeadway;   // minutes
+        private int[] maxHeadway;     // minutes
+        private int[] first;          // minutes, per stop
+        private int[] last;           // minutes, per stop
+
+        private LineStats(TrainLine line){
+            stations = line.getStations();
+            Timetable timetable = line.getTimetable();
+            int stops = Math.min(stations.size(), timetable.getStopCount());
+            departures = new int[stops*HOURS];
+            headways = new int[stops*HOURS];
+            totalHeadway = new int[stops*HOURS];
+            maxHeadway = new int[stops*HOURS];
+            first = new int[stops];
+            last = new int[stops];
+            for (int stop = 0; stop < stops; stop++){
+                int previous = -1;
+                first[stop] = -1;
+                last[stop] = -1;
+                for (int minutes : inTimeOrder(timetable.getDepartures(stop))){
+                    int slot = stop*HOURS + (minutes % Timetable.MINUTES_PER_DAY)/60;
+                    departures[slot]++;
+                    if (previous != -1){
+                        int headway = minutes - previous;
+                        headways[slot]++;
+                        totalHeadway[slot] += headway;
+                        maxHeadway[slot] = Math.max(maxHeadway[slot], headway);
+                    }
+                    if (first[stop] == -1 || minutes < first[stop]){ first[stop] = minutes; }
+                    if (minutes > last[stop]){ last[stop] = minutes; }
+                    previous = minutes;
+                }
+            }
+        }
+
+        /**
+         * The departures sorted by time, if they are not already
+         */
+        private static int[] inTimeOrder(int[] departures){
+            for (int i = 1; i < departures.length; i++){
+                if (departures[i] < departures[i-1]){
+                    Arrays.sort(departures);
+                    break;
+                }
+            }
+            return departures;
+        }
+
+        private int stopOf(Station station){
+            int stop = stations.indexOf(station);
+            return stop < first.length ? stop : -1;
+        }
+    }
+
+}
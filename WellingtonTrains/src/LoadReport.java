@@ -0,0 +1,111 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * LoadReport
+ * The problems found while loading the train network data files.
+ * Each problem records the file, the line number in the file, and a message.
+ * In strict mode the first problem stops the load (an IOException is thrown);
+ * otherwise the bad row is skipped and loading carries on.
+ */
+
+public class LoadReport{
+    private boolean strict;
+    private List<Problem> problems = new ArrayList<Problem>();
+    private int rows;   // number of rows checked
+
+    public LoadReport(boolean strict){
+        this.strict = strict;
+    }
+
+    public boolean isStrict(){
+        return strict;
+    }
+
+    /**
+     * Record a problem in a data file.
+     * Throws an IOException if the report is strict.
+     */
+    public void problem(File file, int lineNumber, String message) throws IOException{
+        Problem problem = new Problem(file.getName(), lineNumber, message);
+        problems.add(problem);
+        if (strict){
+            throw new IOException("Invalid data: "+problem);
+        }
+    }
+
+    /**
+     * Count a row that has been checked
+     */
+    public void checked(){
+        rows++;
+    }
+
+    /**
+     * Count a number of rows that have been checked
+     */
+    public void checked(int count){
+        rows += count;
+    }
+
+    public int getRowCount(){
+        return rows;
+    }
+
+    public List<Problem> getProblems(){
+        return Collections.unmodifiableList(problems);
+    }
+
+    public boolean isValid(){
+        return problems.isEmpty();
+    }
+
+    /**
+     * Number of rows checked plus number of problems
+     */
+    public String toString(){
+        return rows+" rows checked, "+problems.size()+" problems";
+    }
+
+    /**
+     * Problem
+     * One problem found in a data file
+     */
+    public static class Problem{
+        private String fileName;
+        private int lineNumber;
+        private String message;
+
+        public Problem(String fileName, int lineNumber, String message){
+            this.fileName = fileName;
+            this.lineNumber = lineNumber;
+            this.message = message;
+        }
+
+        public String getFileName(){
+            return fileName;
+        }
+
+        public int getLineNumber(){
+            return lineNumber;
+        }
+
+        public String getMessage(){
+            return message;
+        }
+
+        /**
+         * file:line: message
+         */
+        public String toString(){
+            return fileName+":"+lineNumber+": "+message;
+        }
+    }
+
+}
@@ -0,0 +1,296 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * LoadSimulation
+ * Monte Carlo simulation of how many passengers ride each TrainService.
+ * The demand is an origin/destination matrix: the average number of passengers
+ * per day wanting to travel from one Station to another.
+ * Days are numbered from a Monday: days 5 and 6 of each week are the weekend.
+ * Each simulated day
+ * - the number of passengers for each pair varies randomly around the average
+ *   (only WEEKEND_DEMAND of it at the weekend)
+ * - each passenger picks a time to leave: on weekdays mostly around the morning and
+ *   evening peaks, at the weekend spread through the middle of the day
+ * - each passenger takes the journey that arrives first (using the transfer patterns)
+ * - the passenger is counted on every segment (stop to next stop) of every service they ride,
+ *   as a weekday or weekend passenger
+ * Days are simulated in parallel; the counts are LongAdders, so threads adding to the
+ * same segment don't contend on one counter. They are kept by TrainService, so services
+ * and stations added to a line between runs get counters of their own. Each day has its
+ * own random number generator seeded from the day number, so a run gives the same result
+ * on any number of cores.
+ */
+
+public class LoadSimulation{
+    public static final int WEEK = 7;
+    public static final int WEEKDAYS = 5;                // days 0-4 of each week; 5 and 6 are the weekend
+    public static final double WEEKEND_DEMAND = 0.5;     // share of the average demand that travels at the weekend
+
+    private TransferPatterns patterns;
+    private Map<Station, Map<Station, Integer>> demand = new HashMap<Station, Map<Station, Integer>>();
+    private Map<TrainService, LongAdder[]> loads = new ConcurrentHashMap<TrainService, LongAdder[]>();   // [stop*2 + 1 at the weekend]
+    private LongAdder stranded = new LongAdder();   // passengers with no journey
+    private volatile int days;                      // only changed by run, which holds the lock
+
+    public LoadSimulation(TransferPatterns patterns){
+        this.patterns = patterns;
+    }
+
+    /**
+     * Set the average number of passengers per day from one station to another
+     */
+    public void addDemand(Station from, Station to, int passengersPerDay){
+        demand.computeIfAbsent(from, f -> new HashMap<Station, Integer>()).put(to, passengersPerDay);
+    }
+
+    /**
+     * Simulate a number of days, in parallel, adding to the loads of any previous runs
+     * (so a run carries on from the day of the week the last one stopped at)
+     */
+    public synchronized void run(int dayCount, long seed){
+        int firstDay = days;
+        IntStream.range(firstDay, firstDay + dayCount).parallel()
+            .forEach(day -> simulateDay(isWeekend(day), new SplittableRandom(seed*31 + day)));
+        days = firstDay + dayCount;
+    }
+
+    public static boolean isWeekend(int day){
+        return day % WEEK >= WEEKDAYS;
+    }
+
+    private void simulateDay(boolean weekend, SplittableRandom random){
+        double scale = weekend ? WEEKEND_DEMAND : 1;
+        int[] services = new int[TransferPatterns.MAX_LEGS];
+        for (Map.Entry<Station, Map<Station, Integer>> fromOrigin : demand.entrySet()){
+            Station from = fromOrigin.getKey();
+            for (Map.Entry<Station, Integer> entry : fromOrigin.getValue().entrySet()){
+                List<List<TransferPatterns.Leg>> options = patterns.getPatterns(from, entry.getKey());
+                // demand varies by up to 20% either way from day to day
+                int passengers = (int)Math.round(entry.getValue() * scale * (0.8 + 0.4*random.nextDouble()));
+                for (int p = 0; p < passengers; p++){
+                    int minutes = weekend ? weekendDepartureTime(random) : departureTime(random);
+                    if (!ride(options, minutes, weekend, services)){
+                        stranded.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Choose a departure time in minutes: 40% around the morning peak, 40% around the
+     * evening peak, and the rest spread evenly through the day
+     */
+    private static int departureTime(SplittableRandom random){
+        double r = random.nextDouble();
+        double minutes;
+        if (r < 0.4){ minutes = 8*60 + 45*random.nextGaussian(); }
+        else if (r < 0.8){ minutes = 17*60 + 30 + 45*random.nextGaussian(); }
+        else { minutes = 6*60 + random.nextInt(16*60); }
+        return (int)Math.max(0, Math.min(Timetable.MINUTES_PER_DAY - 1, minutes));
+    }
+
+    /**
+     * Choose a weekend departure time in minutes: 60% around the middle of the day,
+     * and the rest spread evenly from 7am to 11pm
+     */
+    private static int weekendDepartureTime(SplittableRandom random){
+        double minutes;
+        if (random.nextDouble() < 0.6){ minutes = 13*60 + 150*random.nextGaussian(); }
+        else { minutes = 7*60 + random.nextInt(16*60); }
+        return (int)Math.max(0, Math.min(Timetable.MINUTES_PER_DAY - 1, minutes));
+    }
+
+    /**
+     * Put one passenger on the earliest arriving journey, and count them on each
+     * segment of each service they ride.  Returns false if there is no journey.
+     */
+    private boolean ride(List<List<TransferPatterns.Leg>> options, int minutes, boolean weekend, int[] services){
+        List<TransferPatterns.Leg> best = null;
+        int bestArrival = -1;
+        for (List<TransferPatterns.Leg> pattern : options){
+            int arrival = TransferPatterns.followPattern(pattern, minutes, null, null);
+            if (arrival != -1 && (best == null || arrival < bestArrival)){
+                best = pattern;
+                bestArrival = arrival;
+            }
+        }
+        if (best == null){ return false; }
+        TransferPatterns.followPattern(best, minutes, null, services);
+        for (int l = 0; l < best.size(); l++){
+            TransferPatterns.Leg leg = best.get(l);
+            LongAdder[] serviceLoads = getLoads(leg.getLine().getTrainServices().get(services[l]), leg.getAlightStop());
+            for (int stop = leg.getBoardStop(); stop < leg.getAlightStop(); stop++){
+                serviceLoads[stop*2 + (weekend ? 1 : 0)].increment();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the counters of a service, with room for the segments before the given stop.
+     * A service's counters are made on first use, and grown if a station has been added
+     * to its line since; growing keeps the same LongAdders, so no count is lost.
+     */
+    private LongAdder[] getLoads(TrainService service, int stops){
+        LongAdder[] counters = loads.get(service);
+        if (counters != null && counters.length >= stops*2){ return counters; }
+        return loads.compute(service, (s, old) -> {
+            int length = Math.max(s.getTrainLine().getStations().size(), stops) * 2;
+            if (old != null && old.length >= length){ return old; }
+            LongAdder[] grown = old == null ? new LongAdder[length] : Arrays.copyOf(old, length);
+            for (int i = old == null ? 0 : old.length; i < length; i++){ grown[i] = new LongAdder(); }
+            return grown;
+        });
+    }
+
+    //Results
+    public int getDays(){
+        return days;
+    }
+
+    /**
+     * Number of the days simulated that were weekend (or weekdays)
+     */
+    public int getDays(boolean weekend){
+        int days = this.days;
+        int weekends = (days / WEEK) * (WEEK - WEEKDAYS) + Math.max(0, days % WEEK - WEEKDAYS);
+        return weekend ? weekends : days - weekends;
+    }
+
+    /**
+     * Average number of passengers per day with no journey to their destination
+     */
+    public double getStranded(){
+        int days = this.days;
+        return days == 0 ? 0 : stranded.sum() / (double)days;
+    }
+
+    /**
+     * Average number of passengers per day on a service, between a stop and the next stop
+     */
+    public double getLoad(TrainService service, int stop){
+        int days = this.days;
+        return days == 0 ? 0 : (count(service, stop, false) + count(service, stop, true)) / (double)days;
+    }
+
+    /**
+     * Average number of passengers per weekend day (or weekday) on a service,
+     * between a stop and the next stop
+     */
+    public double getLoad(TrainService service, int stop, boolean weekend){
+        int days = getDays(weekend);
+        return days == 0 ? 0 : count(service, stop, weekend) / (double)days;
+    }
+
+    private long count(TrainService service, int stop, boolean weekend){
+        LongAdder[] counters = loads.get(service);
+        int i = stop*2 + (weekend ? 1 : 0);
+        return counters == null || i >= counters.length ? 0 : counters[i].sum();
+    }
+
+    /**
+     * Return the busiest segments of a line, busiest first (over all the days)
+     */
+    public List<Segment> getPeakSegments(TrainLine line, int count){
+        List<Segment> segments = new ArrayList<Segment>();
+        if (days == 0){ return segments; }
+        for (TrainService service : line.getTrainServices()){
+            LongAdder[] counters = loads.get(service);
+            if (counters == null){ continue; }
+            for (int stop = 0; stop < counters.length / 2; stop++){
+                if (count(service, stop, false) + count(service, stop, true) == 0){ continue; }
+                segments.add(new Segment(service, stop, getLoad(service, stop),
+                    getLoad(service, stop, false), getLoad(service, stop, true)));
+            }
+        }
+        segments.sort(Comparator.comparingDouble(Segment::getLoad).reversed());
+        return segments.subList(0, Math.min(count, segments.size()));
+    }
+
+    /**
+     * Report of the busiest segments of every line, lines in alphabetical order
+     */
+    public String report(int perLine){
+        StringBuilder sb = new StringBuilder();
+        sb.append(days).append(" days simulated (").append(getDays(true)).append(" weekend), ")
+          .append(String.format("%.1f", getStranded())).append(" passengers per day with no journey\n");
+        SortedMap<String, TrainLine> sorted = new TreeMap<String, TrainLine>();
+        for (TrainService service : loads.keySet()){ sorted.put(service.getTrainLine().getName(), service.getTrainLine()); }
+        for (TrainLine line : sorted.values()){
+            sb.append(line.getName()).append('\n');
+            for (Segment segment : getPeakSegments(line, perLine)){
+                sb.append("  ").append(segment).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Segment
+     * The part of one service between a stop and the next stop on its line,
+     * with the average number of passengers on it per day, per weekday and per weekend day
+     */
+    public static class Segment{
+        private TrainService service;
+        private int stop;
+        private double load;
+        private double weekdayLoad;
+        private double weekendLoad;
+
+        public Segment(TrainService service, int stop, double load, double weekdayLoad, double weekendLoad){
+            this.service = service;
+            this.stop = stop;
+            this.load = load;
+            this.weekdayLoad = weekdayLoad;
+            this.weekendLoad = weekendLoad;
+        }
+
+        public TrainLine getLine(){
+            return service.getTrainLine();
+        }
+
+        public TrainService getService(){
+            return service;
+        }
+
+        public Station getFrom(){
+            return getLine().getStations().get(stop);
+        }
+
+        public Station getTo(){
+            return getLine().getStations().get(stop+1);
+        }
+
+        public double getLoad(){
+            return load;
+        }
+
+        public double getWeekdayLoad(){
+            return weekdayLoad;
+        }
+
+        public double getWeekendLoad(){
+            return weekendLoad;
+        }
+
+        /**
+         * Service ID, the two stations, and the average loads
+         */
+        public String toString(){
+            return getService().getTrainID()+" "+getFrom().getName()+" to "+getTo().getName()
+                +": "+String.format("%.1f", load)+" passengers ("+String.format("%.1f", weekdayLoad)
+                +" on weekdays, "+String.format("%.1f", weekendLoad)+" at the weekend)";
+        }
+    }
+
+}
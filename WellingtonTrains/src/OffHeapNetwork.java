@@ -0,0 +1,743 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * OffHeapNetwork
+ * An optional storage backend that keeps the stations, the stop sequence of each
+ * train line and all the service times outside the Java heap, in one buffer that
+ * is memory mapped from a file (or a direct buffer if there is no file).
+ * Only a few small flyweight objects live on the heap, so the garbage collector
+ * does not have to trace the timetable however big the network is.
+ *
+ * open() builds the file straight from the data files (checked the same way as
+ * TrainNetwork.load, but without making a Station, TrainLine or TrainService for the
+ * network), and maps it. The file records the checksum of the data files, so it is
+ * only built again when they change.
+ *
+ * The buffer contains (all numbers are ints unless noted)
+ * - a header: magic number, number of stations, number of lines, data checksum (a long)
+ * - the station table, sorted by name: name offset, zone, distance (a double)
+ * - the line table, sorted by name: name offset, stops offset, number of stops, times offset, number of services
+ * - the stop sequences: the station number of each stop on each line
+ * - the service times: for each line, one row of times per service, one time per stop,
+ *   in minutes from the start of the day the service started (-1 if it does not stop)
+ * - the names: a short length followed by UTF-8 bytes
+ *
+ * StationView, LineView and ServiceView stand in for Station, TrainLine and TrainService.
+ */
+
+public class OffHeapNetwork{
+    public static final String FILE_NAME = "network.offheap";
+    private static final int MAGIC = 0x57545232;    // "WTR2"
+    private static final int HEADER = 20;
+    private static final int STATION_ENTRY = 16;
+    private static final int LINE_ENTRY = 20;
+
+    private ByteBuffer buffer;
+    private int stationCount;
+    private int lineCount;
+    private int[][] linesAt;   // for each station, the lines through it (a small index kept on the heap)
+
+    private OffHeapNetwork(ByteBuffer buffer){
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC){
+            throw new IllegalArgumentException("Not a train network file");
+        }
+        this.buffer = buffer;
+        this.stationCount = buffer.getInt(4);
+        this.lineCount = buffer.getInt(8);
+
+        List<Set<Integer>> lines = new ArrayList<Set<Integer>>();
+        for (int i = 0; i < stationCount; i++){ lines.add(new TreeSet<Integer>()); }
+        for (int l = 0; l < lineCount; l++){
+            LineView line = new LineView(l);
+            for (int k = 0; k < line.getStopCount(); k++){
+                lines.get(line.getStationIndex(k)).add(l);
+            }
+        }
+        linesAt = new int[stationCount][];
+        for (int i = 0; i < stationCount; i++){
+            linesAt[i] = lines.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Copy the stations and train lines into a new direct (off-heap) buffer
+     */
+    public static OffHeapNetwork copyOf(Collection<Station> stations, Collection<TrainLine> lines){
+        Tables tables = Tables.of(stations, lines);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(tables.size());
+        tables.fill(buffer);
+        return new OffHeapNetwork(buffer);
+    }
+
+    /**
+     * Write the stations and train lines to a file, and return the network mapped from that file
+     */
+    public static OffHeapNetwork write(Collection<Station> stations, Collection<TrainLine> lines, File file) throws IOException{
+        return write(Tables.of(stations, lines), file);
+    }
+
+    /**
+     * Read and check the data files in a directory, and write the network to a file without
+     * loading it into a TrainNetwork. Rows with problems are left out and recorded in the
+     * report (in a strict report the first problem stops the build).
+     * Returns the network mapped from the file.
+     */
+    public static OffHeapNetwork build(File directory, File file, LoadReport report) throws IOException{
+        return write(Tables.read(directory, report), file);
+    }
+
+    /**
+     * Map the network file in a directory, first building it from the data files if it is
+     * missing or was built from different data files.
+     */
+    public static OffHeapNetwork open(File directory) throws IOException{
+        File file = new File(directory, FILE_NAME);
+        long checksum = TrainNetwork.dataChecksum(directory);
+        if (!file.exists() || checksumOf(file) != checksum){
+            LoadReport report = new LoadReport(false);
+            build(directory, file, report);
+            System.out.println("Built "+file+" from the data files: "+report);
+        }
+        return load(file);
+    }
+
+    /**
+     * Map a network that was previously written to a file.
+     * The mapping stays valid after the file channel is closed.
+     */
+    public static OffHeapNetwork load(File file) throws IOException{
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            return new OffHeapNetwork(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static OffHeapNetwork write(Tables tables, File file) throws IOException{
+        int size = tables.size();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            tables.fill(buffer);
+            buffer.force();
+            return new OffHeapNetwork(buffer);
+        }
+    }
+
+    /**
+     * The data checksum in the header of a network file, 0 if it is not a network file
+     */
+    private static long checksumOf(File file) throws IOException{
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))){
+            if (file.length() < HEADER || in.readInt() != MAGIC){ return 0; }
+            in.skipBytes(8);
+            return in.readLong();
+        }
+    }
+
+    private static int putName(ByteBuffer buffer, int offset, String name){
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort(offset, (short)bytes.length);
+        for (int i = 0; i < bytes.length; i++){
+            buffer.put(offset+2+i, bytes[i]);
+        }
+        return offset + 2 + bytes.length;
+    }
+
+    private String getName(int offset){
+        byte[] bytes = new byte[buffer.getShort(offset)];
+        for (int i = 0; i < bytes.length; i++){
+            bytes[i] = buffer.get(offset+2+i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //Getters
+    public int getStationCount(){
+        return stationCount;
+    }
+
+    public int getLineCount(){
+        return lineCount;
+    }
+
+    /**
+     * Checksum of the data files the network was built from, 0 if it was copied from a TrainNetwork
+     */
+    public long getDataChecksum(){
+        return buffer.getLong(12);
+    }
+
+    public StationView getStation(int index){
+        Objects.checkIndex(index, stationCount);
+        return new StationView(index);
+    }
+
+    /**
+     * Find a station by name (binary search on the sorted station table)
+     *  null if there is no such station
+     */
+    public StationView getStation(String name){
+        int index = find(name, HEADER, STATION_ENTRY, stationCount);
+        return index == -1 ? null : new StationView(index);
+    }
+
+    public LineView getLine(int index){
+        Objects.checkIndex(index, lineCount);
+        return new LineView(index);
+    }
+
+    /**
+     * Find a line by name (binary search on the sorted line table)
+     *  null if there is no such line
+     */
+    public LineView getLine(String name){
+        int index = find(name, HEADER + STATION_ENTRY*stationCount, LINE_ENTRY, lineCount);
+        return index == -1 ? null : new LineView(index);
+    }
+
+    /**
+     * Binary search for a name in a table sorted by name, -1 if it is not there
+     */
+    private int find(String name, int table, int entrySize, int count){
+        if (name == null){ return -1; }
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi){
+            int mid = (lo + hi) >>> 1;
+            int cmp = getName(buffer.getInt(table + entrySize*mid)).compareTo(name);
+            if (cmp == 0){ return mid; }
+            if (cmp < 0){ lo = mid + 1; }
+            else { hi = mid - 1; }
+        }
+        return -1;
+    }
+
+    //Queries
+    /**
+     * Return the train lines through a station, in name order (empty if there is no such station)
+     */
+    public List<LineView> getLinesAt(String stationName){
+        StationView station = getStation(stationName);
+        if (station == null){ return Collections.emptyList(); }
+        return station.getTrainLines();
+    }
+
+    /**
+     * Return the stations on a train line (empty if there is no such line)
+     */
+    public List<StationView> getStationsOn(String lineName){
+        LineView line = getLine(lineName);
+        if (line == null){ return Collections.emptyList(); }
+        List<StationView> stations = new ArrayList<StationView>();
+        for (int k = 0; k < line.getStopCount(); k++){
+            stations.add(line.getStation(k));
+        }
+        return stations;
+    }
+
+    /**
+     * Return the services on a train line (empty if there is no such line)
+     */
+    public List<ServiceView> getServicesOn(String lineName){
+        LineView line = getLine(lineName);
+        if (line == null){ return Collections.emptyList(); }
+        return line.getServices();
+    }
+
+    /**
+     * Return the services of every train line through a station, lines in alphabetical order
+     */
+    public List<ServiceView> getServicesAt(String stationName){
+        List<ServiceView> services = new ArrayList<ServiceView>();
+        for (LineView line : getLinesAt(stationName)){
+            services.addAll(line.getServices());
+        }
+        return services;
+    }
+
+    /**
+     * Return the earliest 24-hour time that the destination can be reached, leaving the
+     * origin at or after the given time, using at most TransferPatterns.MAX_LEGS lines.
+     *  -1 if it cannot be reached that day.
+     * A round-based search: round k finds the earliest arrivals using k lines, boarding
+     * only at the stations that were improved in round k-1.
+     */
+    public int earliestArrival(StationView from, StationView to, int time){
+        if (from == null || to == null || from.equals(to)){ return -1; }
+        int[] arrival = new int[stationCount];
+        Arrays.fill(arrival, Integer.MAX_VALUE);
+        arrival[from.index] = Timetable.toMinutes(time);
+        List<Integer> marked = Collections.singletonList(from.index);
+        for (int k = 1; k <= TransferPatterns.MAX_LEGS && !marked.isEmpty(); k++){
+            int[] previous = arrival.clone();
+            Set<Integer> next = new TreeSet<Integer>();
+            for (int station : marked){
+                for (int l : linesAt[station]){
+                    LineView line = new LineView(l);
+                    for (int board = 0; board < line.getStopCount(); board++){
+                        if (line.getStationIndex(board) != station){ continue; }
+                        int first = line.firstDeparture(board, previous[station]);
+                        if (first == -1){ continue; }
+                        for (int alight = board+1; alight < line.getStopCount(); alight++){
+                            // the first service from the board stop that stops at the alight stop
+                            for (int s = first; s < line.getServiceCount(); s++){
+                                if (line.getMinutes(s, board) == -1){ continue; }
+                                int arrive = line.getMinutes(s, alight);
+                                if (arrive == -1){ continue; }
+                                int dest = line.getStationIndex(alight);
+                                if (arrive < arrival[dest]){
+                                    arrival[dest] = arrive;
+                                    next.add(dest);
+                                }
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+            marked = new ArrayList<Integer>(next);
+        }
+        return arrival[to.index] == Integer.MAX_VALUE ? -1 : Timetable.toClockTime(arrival[to.index]);
+    }
+
+    /**
+     * String contains the number of stations, lines and bytes
+     */
+    public String toString(){
+        return "off-heap network ("+stationCount+" stations, "+lineCount+" lines, "+buffer.capacity()+" bytes)";
+    }
+
+    /**
+     * StationView
+     * Flyweight accessor for a station in the buffer
+     */
+    public class StationView{
+        private int index;
+        private int entry;
+
+        private StationView(int index){
+            this.index = index;
+            this.entry = HEADER + STATION_ENTRY*index;
+        }
+
+        public int getIndex(){
+            return index;
+        }
+
+        public String getName(){
+            return OffHeapNetwork.this.getName(buffer.getInt(entry));
+        }
+
+        public int getZone(){
+            return buffer.getInt(entry+4);
+        }
+
+        public double getDistance(){
+            return buffer.getDouble(entry+8);
+        }
+
+        /**
+         * Return the lines through the station, in name order
+         */
+        public List<LineView> getTrainLines(){
+            List<LineView> lines = new ArrayList<LineView>();
+            for (int l : linesAt[index]){
+                lines.add(new LineView(l));
+            }
+            return lines;
+        }
+
+        public boolean equals(Object other){
+            return other instanceof StationView && ((StationView)other).index == index;
+        }
+
+        public int hashCode(){
+            return index;
+        }
+
+        public String toString(){
+            return getName()+" (zone "+getZone()+")";
+        }
+    }
+
+    /**
+     * LineView
+     * Flyweight accessor for a train line in the buffer
+     */
+    public class LineView{
+        private int index;
+        private int entry;
+
+        private LineView(int index){
+            this.index = index;
+            this.entry = HEADER + STATION_ENTRY*stationCount + LINE_ENTRY*index;
+        }
+
+        public int getIndex(){
+            return index;
+        }
+
+        public String getName(){
+            return OffHeapNetwork.this.getName(buffer.getInt(entry));
+        }
+
+        public int getStopCount(){
+            return buffer.getInt(entry+8);
+        }
+
+        public StationView getStation(int stop){
+            Objects.checkIndex(stop, getStopCount());
+            return new StationView(getStationIndex(stop));
+        }
+
+        private int getStationIndex(int stop){
+            return buffer.getInt(buffer.getInt(entry+4) + 4*stop);
+        }
+
+        public int getServiceCount(){
+            return buffer.getInt(entry+16);
+        }
+
+        public ServiceView getService(int service){
+            Objects.checkIndex(service, getServiceCount());
+            return new ServiceView(this, service);
+        }
+
+        public List<ServiceView> getServices(){
+            List<ServiceView> services = new ArrayList<ServiceView>();
+            for (int s = 0; s < getServiceCount(); s++){
+                services.add(new ServiceView(this, s));
+            }
+            return services;
+        }
+
+        /**
+         * Minutes value of the time a service leaves a stop, -1 if it does not stop there
+         */
+        private int getMinutes(int service, int stop){
+            return buffer.getInt(buffer.getInt(entry+12) + 4*(service*getStopCount() + stop));
+        }
+
+        /**
+         * Return the first service that leaves the given stop at or after the given
+         * 24-hour time, skipping services that do not stop there.  null if none.
+         */
+        public ServiceView nextDeparture(int stop, int time){
+            Objects.checkIndex(stop, getStopCount());
+            int service = firstDeparture(stop, Timetable.toMinutes(time));
+            return service == -1 ? null : new ServiceView(this, service);
+        }
+
+        /**
+         * Index of the first service that leaves the stop at or after the given minutes, -1 if none.
+         * Services leave each stop in time order (the data files are checked for it), so this is
+         * a binary search; a probe that lands on a service not stopping there moves on to the
+         * next one that does.
+         */
+        private int firstDeparture(int stop, int minutes){
+            int lo = 0;
+            int hi = getServiceCount();
+            int found = -1;
+            while (lo < hi){
+                int mid = (lo + hi) >>> 1;
+                int s = mid;
+                while (s < hi && getMinutes(s, stop) == -1){ s++; }
+                if (s == hi){ hi = mid; }
+                else if (getMinutes(s, stop) < minutes){ lo = s + 1; }
+                else {
+                    found = s;
+                    hi = mid;
+                }
+            }
+            return found;
+        }
+
+        public String toString(){
+            return getName()+" ("+getStopCount()+" stations, "+getServiceCount()+" services)";
+        }
+    }
+
+    /**
+     * ServiceView
+     * Flyweight accessor for one service (one row of times) of a line in the buffer
+     */
+    public class ServiceView{
+        private LineView line;
+        private int index;
+
+        private ServiceView(LineView line, int index){
+            this.line = line;
+            this.index = index;
+        }
+
+        public LineView getTrainLine(){
+            return line;
+        }
+
+        public int getIndex(){
+            return index;
+        }
+
+        /**
+         * Return the 24-hour time the service leaves a stop, -1 if it does not stop there
+         */
+        public int getTime(int stop){
+            int minutes = line.getMinutes(index, stop);
+            return minutes == -1 ? -1 : Timetable.toClockTime(minutes);
+        }
+
+        /**
+         * Return the start time of this service, -1 if no start times
+         */
+        public int getStart(){
+            for (int k = 0; k < line.getStopCount(); k++){
+                int time = getTime(k);
+                if (time != -1){ return time; }
+            }
+            return -1;
+        }
+
+        /**
+         * Same ID as TrainService: line name + starting time (plus 10000 if the
+         * service does not stop at the first station)
+         */
+        public String getTrainID(){
+            int start = getStart();
+            if (start == -1){ return null; }
+            return line.getName()+"-"+(getTime(0) == -1 ? start + 10000 : start);
+        }
+
+        public String toString(){
+            String id = getTrainID();
+            if (id == null){ return line.getName()+"-unknownStart"; }
+            int count = 0;
+            for (int k = 0; k < line.getStopCount(); k++){
+                if (getTime(k) != -1){ count++; }
+            }
+            return id+" ("+count+" stops)";
+        }
+    }
+
+    /**
+     * Tables
+     * The contents of the buffer as plain arrays, sorted by name, read either from the
+     * data files or from the objects of a TrainNetwork. Only held while the buffer is filled.
+     */
+    private static class Tables{
+        private long checksum;
+        private List<Station> stations;
+        private List<String> lineNames = new ArrayList<String>();
+        private List<int[]> lineStops = new ArrayList<int[]>();      // station number of each stop
+        private List<List<int[]>> lineTimes = new ArrayList<List<int[]>>();  // minutes of each service at each stop
+
+        private Tables(long checksum, Collection<Station> stations){
+            this.checksum = checksum;
+            this.stations = new ArrayList<Station>(stations);
+            this.stations.sort(Comparator.comparing(Station::getName));
+        }
+
+        /**
+         * The tables of stations and lines already loaded into objects
+         */
+        private static Tables of(Collection<Station> stations, Collection<TrainLine> lines){
+            Tables tables = new Tables(0, stations);
+            Map<Station, Integer> numbers = tables.numbers();
+            List<TrainLine> sorted = new ArrayList<TrainLine>(lines);
+            sorted.sort(Comparator.comparing(TrainLine::getName));
+            for (TrainLine line : sorted){
+                int[] stops = new int[line.getStations().size()];
+                for (int k = 0; k < stops.length; k++){
+                    stops[k] = numbers.get(line.getStations().get(k));
+                }
+                Timetable timetable = line.getTimetable();
+                List<int[]> times = new ArrayList<int[]>();
+                for (int s = 0; s < timetable.size(); s++){
+                    int[] row = new int[stops.length];
+                    for (int k = 0; k < stops.length; k++){
+                        row[k] = k < timetable.getStopCount() ? timetable.getMinutes(s, k) : -1;
+                    }
+                    times.add(row);
+                }
+                tables.addLine(line.getName(), stops, times);
+            }
+            return tables;
+        }
+
+        /**
+         * The tables in the data files of a directory, checked as TrainNetwork.load does:
+         * rows with problems are left out, and an unknown station is left out of its line
+         * along with its column of times.
+         */
+        private static Tables read(File directory, LoadReport report) throws IOException{
+            long checksum = TrainNetwork.dataChecksum(directory);
+            Map<String, Station> stations = new HashMap<String, Station>();
+            TrainNetwork.loadStations(new File(directory, "stations.data"), report, stations);
+            Tables tables = new Tables(checksum, stations.values());
+            Map<Station, Integer> numbers = tables.numbers();
+
+            SortedSet<String> lineNames = new TreeSet<String>();
+            File linesFile = new File(directory, "train-lines.data");
+            try (Scanner sc = new Scanner(linesFile)){
+                int lineNumber = 0;
+                while (sc.hasNextLine()){
+                    String name = sc.nextLine().trim();
+                    lineNumber++;
+                    if (name.isEmpty()){ continue; }
+                    if (lineNames.contains(name)){
+                        report.problem(linesFile, lineNumber, "duplicate train line "+name);
+                        continue;
+                    }
+                    if (TrainNetwork.lineFilesExist(directory, name, report, linesFile, lineNumber)){ lineNames.add(name); }
+                }
+            }
+            for (String name : lineNames){
+                List<Integer> stops = new ArrayList<Integer>();
+                List<Boolean> known = new ArrayList<Boolean>();
+                List<Integer> rows = new ArrayList<Integer>();
+                File stationsFile = new File(directory, name+"-stations.data");
+                try (Scanner sc = new Scanner(stationsFile)){
+                    int lineNumber = 0;
+                    while (sc.hasNextLine()){
+                        String stationName = sc.nextLine().trim();
+                        lineNumber++;
+                        if (stationName.isEmpty()){ continue; }
+                        report.checked();
+                        Station station = stations.get(stationName);
+                        known.add(station != null);
+                        rows.add(lineNumber);
+                        if (station == null){
+                            report.problem(stationsFile, lineNumber, "unknown station "+stationName+" (its times are left out of every service)");
+                            continue;
+                        }
+                        stops.add(numbers.get(station));
+                    }
+                }
+
+                List<int[]> times = new ArrayList<int[]>();
+                File servicesFile = new File(directory, name+"-services.data");
+                int width = known.size();
+                int[] lastTimes = new int[width];
+                Arrays.fill(lastTimes, -1);
+                boolean[] stopped = new boolean[width];
+                try (Scanner sc = new Scanner(servicesFile)){
+                    int lineNumber = 0;
+                    while (sc.hasNextLine()){
+                        String row = sc.nextLine().trim();
+                        lineNumber++;
+                        if (row.isEmpty()){ continue; }
+                        report.checked();
+                        int[] clockTimes = TrainNetwork.checkService(report, servicesFile, lineNumber, row, width, lastTimes);
+                        if (clockTimes == null){ continue; }
+                        TrainNetwork.markStops(clockTimes, stopped);
+                        // minutes from the start of the day the service started, as Timetable.getMinutes
+                        int[] minutes = new int[stops.size()];
+                        int column = 0;
+                        int previous = -1;
+                        for (int i = 0; i < width; i++){
+                            if (!known.get(i)){ continue; }
+                            int m = -1;
+                            if (clockTimes[i] != -1){
+                                m = Timetable.toMinutes(clockTimes[i]);
+                                while (m < previous){ m += Timetable.MINUTES_PER_DAY; }
+                                previous = m;
+                            }
+                            minutes[column++] = m;
+                        }
+                        times.add(minutes);
+                    }
+                }
+                TrainNetwork.checkStopped(report, stationsFile, known, rows, stopped, !times.isEmpty());
+                tables.addLine(name, stops.stream().mapToInt(Integer::intValue).toArray(), times);
+            }
+            return tables;
+        }
+
+        private Map<Station, Integer> numbers(){
+            Map<Station, Integer> numbers = new HashMap<Station, Integer>();
+            for (int i = 0; i < stations.size(); i++){
+                numbers.put(stations.get(i), i);
+            }
+            return numbers;
+        }
+
+        private void addLine(String name, int[] stops, List<int[]> times){
+            lineNames.add(name);
+            lineStops.add(stops);
+            lineTimes.add(times);
+        }
+
+        /**
+         * Number of bytes the buffer needs
+         */
+        private int size(){
+            long size = HEADER + (long)STATION_ENTRY*stations.size() + (long)LINE_ENTRY*lineNames.size();
+            for (Station station : stations){
+                size += 2 + station.getName().getBytes(StandardCharsets.UTF_8).length;
+            }
+            for (int l = 0; l < lineNames.size(); l++){
+                int stops = lineStops.get(l).length;
+                size += 4L*stops + 4L*stops*lineTimes.get(l).size();
+                size += 2 + lineNames.get(l).getBytes(StandardCharsets.UTF_8).length;
+            }
+            if (size > Integer.MAX_VALUE){
+                throw new IllegalArgumentException("Network too large for one buffer: "+size+" bytes");
+            }
+            return (int)size;
+        }
+
+        private void fill(ByteBuffer buffer){
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, stations.size());
+            buffer.putInt(8, lineNames.size());
+            buffer.putLong(12, checksum);
+
+            // stop sequences and times go after the tables, the names after those
+            int data = HEADER + STATION_ENTRY*stations.size() + LINE_ENTRY*lineNames.size();
+            int names = data;
+            for (int l = 0; l < lineNames.size(); l++){
+                names += 4*lineStops.get(l).length*(1 + lineTimes.get(l).size());
+            }
+
+            for (int i = 0; i < stations.size(); i++){
+                Station station = stations.get(i);
+                int entry = HEADER + STATION_ENTRY*i;
+                buffer.putInt(entry, names);
+                buffer.putInt(entry+4, station.getZone());
+                buffer.putDouble(entry+8, station.getDistance());
+                names = putName(buffer, names, station.getName());
+            }
+
+            for (int l = 0; l < lineNames.size(); l++){
+                int entry = HEADER + STATION_ENTRY*stations.size() + LINE_ENTRY*l;
+                int[] stops = lineStops.get(l);
+                buffer.putInt(entry, names);
+                buffer.putInt(entry+4, data);
+                buffer.putInt(entry+8, stops.length);
+                names = putName(buffer, names, lineNames.get(l));
+                for (int station : stops){
+                    buffer.putInt(data, station);
+                    data += 4;
+                }
+                buffer.putInt(entry+12, data);
+                buffer.putInt(entry+16, lineTimes.get(l).size());
+                for (int[] row : lineTimes.get(l)){
+                    for (int minutes : row){
+                        buffer.putInt(data, minutes);
+                        data += 4;
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * QueryLog
+ * An append-only binary log of the queries made of the train network, so that real
+ * traffic can be replayed later (see QueryReplay).
+ * Each time the log is opened it starts a session with the current time; after that
+ * every entry is
+ * - the query type (one byte)
+ * - the microseconds since the previous entry (a variable length number, usually 2-4 bytes)
+ * - the station or line name(s) the query was for
+ * - for route and live departure queries, the 24-hour time the query was for
+ * Writes are buffered; the log must be closed (or flushed) to be sure entries reach the file.
+ * If the program stops part way through writing an entry, the log ends in a torn entry:
+ * read() stops at it, and the next session is written over it.
+ */
+
+public class QueryLog implements Closeable{
+    public static final int START = 0;            // start of a session
+    public static final int STATION = 1;          // lines at a station (searchStation)
+    public static final int LINE = 2;             // stations on a line (searchTL)
+    public static final int LINE_SERVICES = 3;    // services on a line (listTLService)
+    public static final int STATION_SERVICES = 4; // services at a station (findStationSvcs)
+    public static final int ROUTE = 5;            // routes between two stations (routePlan)
+    public static final int FREQUENCY = 6;        // service frequency at a station (frequencyReport)
+    public static final int DEPARTURES = 7;       // live departures at a station (liveDepartures)
+
+    private DataOutputStream out;
+    private long last;   // System.nanoTime() of the previous entry
+
+    /**
+     * Open a log file for appending (after the last whole entry), and start a new session
+     */
+    public QueryLog(File file) throws IOException{
+        if (file.exists()){
+            long end = readEntries(file, new ArrayList<Entry>());
+            if (end < file.length()){
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")){ raf.setLength(end); }
+            }
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        out.writeByte(START);
+        out.writeLong(System.currentTimeMillis());
+        last = System.nanoTime();
+    }
+
+    /**
+     * Record a query for one station or line
+     */
+    public synchronized void record(int type, String name) throws IOException{
+        header(type);
+        out.writeUTF(name);
+    }
+
+    /**
+     * Record a route query between two stations at a 24-hour time
+     */
+    public synchronized void recordRoute(String from, String to, int time) throws IOException{
+        header(ROUTE);
+        out.writeUTF(from);
+        out.writeUTF(to);
+        out.writeShort(time);
+    }
+
+    /**
+     * Record a live departures query for a station at a 24-hour time
+     */
+    public synchronized void recordDepartures(String station, int time) throws IOException{
+        header(DEPARTURES);
+        out.writeUTF(station);
+        out.writeShort(time);
+    }
+
+    private void header(int type) throws IOException{
+        long now = System.nanoTime();
+        out.writeByte(type);
+        writeVarLong(out, (now - last) / 1000);
+        last = now;
+    }
+
+    public synchronized void flush() throws IOException{
+        out.flush();
+    }
+
+    public synchronized void close() throws IOException{
+        out.close();
+    }
+
+    /**
+     * Read all the entries in a log file, up to a torn entry at the end (if any).
+     * The time of each entry is microseconds from the start of the log, with no gap
+     * between sessions.
+     */
+    public static List<Entry> read(File file) throws IOException{
+        List<Entry> entries = new ArrayList<Entry>();
+        readEntries(file, entries);
+        return entries;
+    }
+
+    /**
+     * Read the entries in a log file into the list, stopping at a torn entry.
+     * Returns the length of the file up to the end of the last whole entry.
+     */
+    private static long readEntries(File file, List<Entry> entries) throws IOException{
+        byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+        ByteArrayInputStream bytesIn = new ByteArrayInputStream(bytes);
+        DataInputStream in = new DataInputStream(bytesIn);
+        long micros = 0;
+        int end = 0;
+        int type;
+        try {
+            while ((type = in.read()) != -1){
+                if (type == START){
+                    in.readLong();
+                }
+                else {
+                    long entryMicros = micros + readVarLong(in);
+                    if (type == ROUTE){
+                        entries.add(new Entry(entryMicros, type, in.readUTF(), in.readUTF(), in.readShort()));
+                    }
+                    else if (type == DEPARTURES){
+                        entries.add(new Entry(entryMicros, type, in.readUTF(), null, in.readShort()));
+                    }
+                    else if ((type >= STATION && type <= STATION_SERVICES) || type == FREQUENCY){
+                        entries.add(new Entry(entryMicros, type, in.readUTF(), null, -1));
+                    }
+                    else {
+                        throw new IOException("Bad query type "+type+" in "+file);
+                    }
+                    micros = entryMicros;
+                }
+                end = bytes.length - bytesIn.available();
+            }
+        }
+        catch (EOFException ex){
+            // the program stopped part way through writing the last entry: keep the ones before it
+        }
+        return end;
+    }
+
+    /**
+     * Write a non-negative number 7 bits at a time, low bits first
+     */
+    private static void writeVarLong(DataOutput out, long value) throws IOException{
+        while ((value & ~0x7FL) != 0){
+            out.writeByte((int)(value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int)value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException{
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7){
+            int b = in.readUnsignedByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0){ return value; }
+        }
+        throw new IOException("Bad number in query log");
+    }
+
+    /**
+     * Entry
+     * One query read back from a log
+     */
+    public static class Entry{
+        private long micros;
+        private int type;
+        private String name;
+        private String name2;
+        private int time;
+
+        public Entry(long micros, int type, String name, String name2, int time){
+            this.micros = micros;
+            this.type = type;
+            this.name = name;
+            this.name2 = name2;
+            this.time = time;
+        }
+
+        /**
+         * Microseconds from the start of the log
+         */
+        public long getMicros(){
+            return micros;
+        }
+
+        public int getType(){
+            return type;
+        }
+
+        /**
+         * The station or line name (the origin station for a route)
+         */
+        public String getName(){
+            return name;
+        }
+
+        /**
+         * The destination station of a route, otherwise null
+         */
+        public String getName2(){
+            return name2;
+        }
+
+        /**
+         * The 24-hour time of a route or live departures, otherwise -1
+         */
+        public int getTime(){
+            return time;
+        }
+
+        public String toString(){
+            return micros+"us type "+type+" "+name+(name2 == null ? "" : " to "+name2+" at "+time);
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryReplay
+ * Load tester that replays a QueryLog against the train network, without the UI.
+ * Each query is issued at its logged time divided by the speed (1 for real time,
+ * 10 for ten times faster), or as fast as possible for "max".
+ * The queries are run by a pool of threads; the report gives the throughput and
+ * the latency percentiles. Latency is measured from the time each query was due
+ * (its logged time, or when it was handed to the pool at "max" speed) to when it
+ * finished, so time spent waiting for a free thread is counted, as a user would see it.
+ * Live departures are served by one shared DepartureBoard, whose clock is moved on to
+ * the time of each query (never back), as the UI's board is by its clock.
+ * With --offheap the queries are served by an OffHeapNetwork mapped from its file
+ * (built from the data files if needed), and routes by its full search rather than
+ * the transfer patterns. It has no headway report or departure boards, so frequency
+ * and live departure queries read the services at the station instead.
+ *
+ * Usage: java QueryReplay [--offheap] <log file> [speed|max] [threads] [data directory]
+ */
+
+public class QueryReplay{
+    private static final int BOARD_ROWS = 10;   // as on the UI's board
+
+    private TrainNetwork network;
+    private TransferPatterns patterns;
+    private HeadwayReport headwayReport;
+    private DepartureBoard departureBoard;
+    private OffHeapNetwork offHeap;   // instead of network and patterns, if not null
+    private AtomicLong results = new AtomicLong();   // sum of result sizes, so the work is not optimised away
+
+    public QueryReplay(TrainNetwork network, TransferPatterns patterns){
+        this.network = network;
+        this.patterns = patterns;
+        this.headwayReport = new HeadwayReport(network.getTrainLines().values());
+        this.departureBoard = new DepartureBoard(BOARD_ROWS, 0);
+    }
+
+    public QueryReplay(OffHeapNetwork offHeap){
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Run one logged query against the network, the same way the UI does
+     */
+    public void execute(QueryLog.Entry entry){
+        if (offHeap != null){
+            executeOffHeap(entry);
+            return;
+        }
+        int size = 0;
+        switch (entry.getType()){
+            case QueryLog.STATION:
+                size = network.getLinesAt(entry.getName()).size();
+                break;
+            case QueryLog.LINE:
+                size = network.getStationsOn(entry.getName()).size();
+                break;
+            case QueryLog.LINE_SERVICES:
+                size = network.getServicesOn(entry.getName()).toString().length();
+                break;
+            case QueryLog.STATION_SERVICES:
+                size = network.getServicesAt(entry.getName()).toString().length();
+                break;
+            case QueryLog.ROUTE:
+                Station from = network.getStations().get(entry.getName());
+                Station to = network.getStations().get(entry.getName2());
+                for (List<TransferPatterns.Leg> pattern : patterns.getPatterns(from, to)){
+                    size += TransferPatterns.arrivalTime(pattern, entry.getTime());
+                }
+                break;
+            case QueryLog.FREQUENCY:
+            case QueryLog.DEPARTURES:
+                Station station = network.getStations().get(entry.getName());
+                if (station == null){ break; }
+                if (entry.getType() == QueryLog.FREQUENCY){
+                    size = headwayReport.report(station).length();
+                    break;
+                }
+                departureBoard.advanceTo(Timetable.toMinutes(entry.getTime()));
+                int[] rows = new int[1];
+                departureBoard.subscribe(station, null, (at, line, removed, added) -> rows[0] += added.size()).cancel();
+                size = rows[0];
+                break;
+        }
+        results.addAndGet(size);
+    }
+
+    /**
+     * Run one logged query against the off-heap network
+     */
+    private void executeOffHeap(QueryLog.Entry entry){
+        int size = 0;
+        switch (entry.getType()){
+            case QueryLog.STATION:
+                size = offHeap.getLinesAt(entry.getName()).size();
+                break;
+            case QueryLog.LINE:
+                size = offHeap.getStationsOn(entry.getName()).size();
+                break;
+            case QueryLog.LINE_SERVICES:
+                size = offHeap.getServicesOn(entry.getName()).toString().length();
+                break;
+            case QueryLog.STATION_SERVICES:
+                size = offHeap.getServicesAt(entry.getName()).toString().length();
+                break;
+            case QueryLog.ROUTE:
+                size = offHeap.earliestArrival(offHeap.getStation(entry.getName()), offHeap.getStation(entry.getName2()), entry.getTime());
+                break;
+            case QueryLog.FREQUENCY:
+            case QueryLog.DEPARTURES:
+                size = offHeap.getServicesAt(entry.getName()).toString().length();
+                break;
+        }
+        results.addAndGet(size);
+    }
+
+    /**
+     * Replay the entries at a speed (0 for as fast as possible) on a number of threads.
+     * Returns the report.
+     */
+    public String replay(List<QueryLog.Entry> entries, double speed, int threads) throws InterruptedException{
+        long[] latencies = new long[entries.size()];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < entries.size(); i++){
+            QueryLog.Entry entry = entries.get(i);
+            long due = speed > 0 ? start + (long)(entry.getMicros() * 1000 / speed) : System.nanoTime();
+            long wait = due - System.nanoTime();
+            if (wait > 0){ TimeUnit.NANOSECONDS.sleep(wait); }
+            int index = i;
+            pool.execute(() -> {
+                execute(entry);
+                latencies[index] = System.nanoTime() - due;
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.DAYS);
+        long elapsed = System.nanoTime() - start;
+        return report(latencies, elapsed);
+    }
+
+    private static String report(long[] latencies, long elapsed){
+        if (latencies.length == 0){ return "No queries in the log"; }
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        return String.format("%d queries in %.3f s (%.0f queries/s)%nlatency p50 %s, p90 %s, p99 %s, p99.9 %s, max %s",
+            sorted.length, elapsed / 1e9, sorted.length / (elapsed / 1e9),
+            micros(percentile(sorted, 50)), micros(percentile(sorted, 90)), micros(percentile(sorted, 99)),
+            micros(percentile(sorted, 99.9)), micros(sorted[sorted.length-1]));
+    }
+
+    private static long percentile(long[] sorted, double p){
+        int index = (int)Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length-1, index))];
+    }
+
+    private static String micros(long nanos){
+        return String.format("%.1fus", nanos / 1000.0);
+    }
+
+    /**
+     * main method replays a query log and prints the report
+     *
+     * @param args --offheap (optional), log file, speed (a number or max), number of threads, data directory
+     */
+    public static void main(String[] args) throws Exception{
+        boolean useOffHeap = args.length > 0 && args[0].equals("--offheap");
+        if (useOffHeap){ args = Arrays.copyOfRange(args, 1, args.length); }
+        if (args.length < 1){
+            System.out.println("Usage: java QueryReplay [--offheap] <log file> [speed|max] [threads] [data directory]");
+            return;
+        }
+        double speed = args.length > 1 && !args[1].equals("max") ? Double.parseDouble(args[1]) : 0;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4 * Runtime.getRuntime().availableProcessors();
+        File directory = new File(args.length > 3 ? args[3] : ".");
+
+        QueryReplay replay;
+        Object target;
+        if (useOffHeap){
+            OffHeapNetwork offHeap = OffHeapNetwork.open(directory);
+            replay = new QueryReplay(offHeap);
+            target = offHeap;
+        }
+        else {
+            TrainNetwork network = TrainNetwork.load(directory, false);
+            TransferPatterns patterns = TransferPatterns.loadOrCompute(new File(directory, TransferPatterns.FILE_NAME),
+                network.getStations(), network.getTrainLines());
+            replay = new QueryReplay(network, patterns);
+            target = network;
+        }
+        List<QueryLog.Entry> entries = QueryLog.read(new File(args[0]));
+        System.out.println("Replaying "+entries.size()+" queries against "+target+" at "
+            +(speed > 0 ? speed+"x" : "max speed")+" on "+threads+" threads");
+        System.out.println(replay.replay(entries, speed, threads));
+    }
+
+}
@@ -0,0 +1,333 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * RegionRegistry
+ * Several regional train networks (eg Wellington, Auckland, Christchurch), each loaded
+ * from its own directory of data files as an independent shard.
+ * A region is only loaded (and its transfer patterns loaded or computed) the first time it is
+ * queried, so memory and load time grow with the regions actually used. Regions can be
+ * loaded in parallel, and reloaded on their own without stopping queries on the others.
+ * Each region is opened through the ChangeJournal in its directory's journal folder, so edits
+ * made to it are kept when it is reloaded. A region that is already open (eg the one the
+ * program shows) can be added as it is, so its journal is not opened twice.
+ *
+ * Regions are joined by links between boundary stations: a link says a passenger can get
+ * from a station in one region to a station in another in a number of minutes
+ * (eg by a long distance train or ferry). Journeys between regions are planned by
+ * stitching journeys within each region together at the links.
+ *
+ * The regions file has one entry per line:
+ *   region <name> <directory>
+ *   link <region> <station> <region> <station> <minutes>
+ */
+
+public class RegionRegistry{
+    private Map<String, File> directories = new ConcurrentHashMap<String, File>();
+    private Map<String, Region> loaded = new ConcurrentHashMap<String, Region>();
+    private Map<String, Object> locks = new ConcurrentHashMap<String, Object>();       // one per region, held while loading
+    // by region of the link's start; the lists are read by journeys while links are added
+    private Map<String, List<Link>> links = new ConcurrentHashMap<String, List<Link>>();
+
+    /**
+     * Add a region, to be loaded from the data files in a directory when first used
+     */
+    public void addRegion(String name, File directory){
+        directories.put(name, directory);
+    }
+
+    /**
+     * Add a region that is already loaded, in place of loading it from its directory
+     */
+    public void addRegion(Region region){
+        synchronized (locks.computeIfAbsent(region.getName(), n -> new Object())){
+            directories.putIfAbsent(region.getName(), region.getNetwork().getDirectory());
+            loaded.put(region.getName(), region);
+        }
+    }
+
+    /**
+     * Add a link from a boundary station in one region to a station in another
+     */
+    public void addLink(String fromRegion, String fromStation, String toRegion, String toStation, int minutes){
+        links.computeIfAbsent(fromRegion, r -> new CopyOnWriteArrayList<Link>())
+             .add(new Link(fromRegion, fromStation, toRegion, toStation, minutes));
+    }
+
+    /**
+     * Read the regions and links in a regions file.
+     * Region directories are relative to the directory of the regions file.
+     */
+    public static RegionRegistry load(File file) throws IOException{
+        RegionRegistry registry = new RegionRegistry();
+        try (Scanner sc = new Scanner(file)){
+            int lineNumber = 0;
+            while (sc.hasNextLine()){
+                String row = sc.nextLine().trim();
+                lineNumber++;
+                if (row.isEmpty() || row.startsWith("#")){ continue; }
+                String[] values = row.split("\\s+");
+                if (values[0].equals("region") && values.length == 3){
+                    registry.addRegion(values[1], new File(file.getAbsoluteFile().getParentFile(), values[2]));
+                }
+                else if (values[0].equals("link") && values.length == 6){
+                    try {
+                        registry.addLink(values[1], values[2], values[3], values[4], Integer.parseInt(values[5]));
+                    }
+                    catch (NumberFormatException ex){
+                        throw new IOException(file.getName()+":"+lineNumber+": bad minutes "+values[5]);
+                    }
+                }
+                else {
+                    throw new IOException(file.getName()+":"+lineNumber+": expected a region or link entry");
+                }
+            }
+        }
+        return registry;
+    }
+
+    //Regions
+    public Set<String> getRegionNames(){
+        return Collections.unmodifiableSet(directories.keySet());
+    }
+
+    /**
+     * Return true if the region has been loaded
+     */
+    public boolean isLoaded(String name){
+        return loaded.containsKey(name);
+    }
+
+    /**
+     * Return a region, loading it if this is the first time it is used.
+     * Only one thread loads a region; others asking for it at the same time wait.
+     */
+    public Region getRegion(String name){
+        File directory = directories.get(name);
+        if (directory == null){ throw new IllegalArgumentException("Unknown region "+name); }
+        Region region = loaded.get(name);
+        if (region != null){ return region; }
+        synchronized (locks.computeIfAbsent(name, n -> new Object())){
+            region = loaded.get(name);
+            if (region == null){
+                region = loadRegion(name, directory);
+                loaded.put(name, region);
+            }
+            return region;
+        }
+    }
+
+    /**
+     * Load several regions at the same time
+     */
+    public void loadAll(Collection<String> names){
+        names.parallelStream().forEach(this::getRegion);
+    }
+
+    /**
+     * Reload a region: its journal is committed and closed, then opened again, which reads
+     * the data files again if they have changed and keeps the edits made to the region.
+     * Queries keep using the old copy of the region until the new one has finished loading
+     * (but it can no longer be edited). The region's lock is held, so a reload doesn't race
+     * a first load, another reload or an unload of the same region.
+     */
+    public Region reload(String name){
+        File directory = directories.get(name);
+        if (directory == null){ throw new IllegalArgumentException("Unknown region "+name); }
+        synchronized (locks.computeIfAbsent(name, n -> new Object())){
+            close(loaded.get(name));
+            Region region = loadRegion(name, directory);
+            loaded.put(name, region);
+            return region;
+        }
+    }
+
+    /**
+     * Remove a region from memory, committing its edits; it will be loaded again when next used
+     */
+    public void unload(String name){
+        synchronized (locks.computeIfAbsent(name, n -> new Object())){
+            close(loaded.remove(name));
+        }
+    }
+
+    private static Region loadRegion(String name, File directory){
+        try {
+            ChangeJournal journal = ChangeJournal.open(directory, new File(directory, "journal"), false);
+            TrainNetwork network = journal.getNetwork();
+            TransferPatterns patterns = TransferPatterns.loadOrCompute(new File(directory, TransferPatterns.FILE_NAME),
+                network.getStations(), network.getTrainLines());
+            return new Region(name, journal, patterns);
+        }
+        catch (IOException ex){
+            throw new UncheckedIOException("Can't load region "+name+" from "+directory, ex);
+        }
+    }
+
+    private static void close(Region region){
+        if (region == null || region.getJournal() == null){ return; }
+        try {
+            region.getJournal().close();
+        }
+        catch (IOException ex){
+            throw new UncheckedIOException("Can't close the journal of region "+region.getName(), ex);
+        }
+    }
+
+    //Journeys
+    /**
+     * Return the earliest 24-hour time that a station in one region can be reached from
+     * a station in (possibly) another region, leaving at or after the given time.
+     *  -1 if it can't be reached that day.
+     * A journey between regions is found by a shortest path search over the boundary
+     * stations, so only the regions the journey could pass through are loaded.
+     */
+    public int earliestArrival(String fromRegion, String fromStation, String toRegion, String toStation, int time){
+        Map<String, Integer> best = new HashMap<String, Integer>();   // region:station -> minutes
+        PriorityQueue<Object[]> queue = new PriorityQueue<Object[]>(Comparator.comparingInt(e -> (Integer)e[2]));
+        queue.add(new Object[]{fromRegion, fromStation, Timetable.toMinutes(time)});
+        int arrival = -1;
+        while (!queue.isEmpty()){
+            Object[] entry = queue.poll();
+            String region = (String)entry[0];
+            String station = (String)entry[1];
+            int minutes = (Integer)entry[2];
+            if (arrival != -1 && minutes >= arrival){ break; }
+            String key = region+":"+station;
+            if (best.containsKey(key)){ continue; }
+            best.put(key, minutes);
+
+            if (region.equals(toRegion)){
+                int end = station.equals(toStation) ? minutes : arrive(region, station, toStation, minutes);
+                if (end != -1 && (arrival == -1 || end < arrival)){ arrival = end; }
+            }
+            for (Link link : links.getOrDefault(region, Collections.<Link>emptyList())){
+                int atBoundary = station.equals(link.getFromStation()) ? minutes
+                    : arrive(region, station, link.getFromStation(), minutes);
+                if (atBoundary == -1){ continue; }
+                int across = atBoundary + link.getMinutes();
+                if (across < Timetable.MINUTES_PER_DAY){
+                    queue.add(new Object[]{link.getToRegion(), link.getToStation(), across});
+                }
+            }
+        }
+        return arrival == -1 ? -1 : Timetable.toClockTime(arrival);
+    }
+
+    /**
+     * Arrival in minutes at a station in the same region, -1 if not possible that day
+     */
+    private int arrive(String regionName, String from, String to, int minutes){
+        Region region = getRegion(regionName);
+        Station start = region.getNetwork().getStations().get(from);
+        Station end = region.getNetwork().getStations().get(to);
+        if (start == null || end == null){ return -1; }
+        int arrival = region.getPatterns().earliestArrival(start, end, Timetable.toClockTime(minutes));
+        if (arrival == -1){ return -1; }
+        int result = Timetable.toMinutes(arrival);
+        return result < minutes ? result + Timetable.MINUTES_PER_DAY : result;
+    }
+
+    /**
+     * Names of the regions, and which of them are loaded
+     */
+    public String toString(){
+        return directories.size()+" regions ("+loaded.size()+" loaded: "+new TreeSet<String>(loaded.keySet())+")";
+    }
+
+    /**
+     * Region
+     * One loaded regional network, the journal that keeps its edits (null if it has
+     * none), and its transfer patterns
+     */
+    public static class Region{
+        private String name;
+        private TrainNetwork network;
+        private ChangeJournal journal;
+        private TransferPatterns patterns;
+
+        public Region(String name, TrainNetwork network, TransferPatterns patterns){
+            this.name = name;
+            this.network = network;
+            this.patterns = patterns;
+        }
+
+        public Region(String name, ChangeJournal journal, TransferPatterns patterns){
+            this(name, journal.getNetwork(), patterns);
+            this.journal = journal;
+        }
+
+        public String getName(){
+            return name;
+        }
+
+        public TrainNetwork getNetwork(){
+            return network;
+        }
+
+        public ChangeJournal getJournal(){
+            return journal;
+        }
+
+        public TransferPatterns getPatterns(){
+            return patterns;
+        }
+
+        public String toString(){
+            return name+": "+network;
+        }
+    }
+
+    /**
+     * Link
+     * A connection from a boundary station in one region to a station in another
+     */
+    public static class Link{
+        private String fromRegion;
+        private String fromStation;
+        private String toRegion;
+        private String toStation;
+        private int minutes;
+
+        public Link(String fromRegion, String fromStation, String toRegion, String toStation, int minutes){
+            this.fromRegion = fromRegion;
+            this.fromStation = fromStation;
+            this.toRegion = toRegion;
+            this.toStation = toStation;
+            this.minutes = minutes;
+        }
+
+        public String getFromRegion(){
+            return fromRegion;
+        }
+
+        public String getFromStation(){
+            return fromStation;
+        }
+
+        public String getToRegion(){
+            return toRegion;
+        }
+
+        public String getToStation(){
+            return toStation;
+        }
+
+        public int getMinutes(){
+            return minutes;
+        }
+
+        public String toString(){
+            return fromRegion+":"+fromStation+" to "+toRegion+":"+toStation+" ("+minutes+" min)";
+        }
+    }
+
+}
@@ -0,0 +1,202 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+
+/**
+ * Scenario
+ * A "what if" disruption laid over the train network, eg
+ * "the Melling line is closed between Petone and Western-Hutt from 09:00 to 12:00".
+ * A Scenario contains
+ * - closures: a section of a TrainLine (between two stations) that no service can
+ *   run through between a start and end time (an overnight closure, eg 22:00 to 05:00,
+ *   ends the next morning)
+ * - cancellations: individual TrainServices that do not run
+ * The stations, lines and services themselves are never copied or changed; the scenario
+ * only records what is different, and is checked while scanning the timetables.
+ *
+ * diff() compares journeys against the undisrupted network. Only the pairs of stations
+ * whose transfer patterns use a disrupted line are recomputed, and a pair whose patterns
+ * are slower or broken is searched again in full, since the fastest way round a
+ * disruption may not be one of its patterns.
+ */
+
+public class Scenario{
+    private String name;
+    private Map<TrainLine, List<int[]>> closures = new HashMap<TrainLine, List<int[]>>(); // {from stop, to stop, start, end}
+    private Set<TrainService> cancelled = new HashSet<TrainService>();
+
+    public Scenario(String name){
+        this.name = name;
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    /**
+     * Close the section of a line between two stations (in either order),
+     * between two 24-hour times. If the end time is before the start time, the
+     * closure runs past midnight (every day, as the timetable does).
+     */
+    public void closeSection(TrainLine line, Station from, Station to, int startTime, int endTime){
+        int a = line.getStations().indexOf(from);
+        int b = line.getStations().indexOf(to);
+        if (a == -1 || b == -1){
+            throw new IllegalArgumentException(from+" and "+to+" are not both on "+line.getName());
+        }
+        for (int time : new int[]{startTime, endTime}){
+            if (time < 0 || time >= 2400 || time % 100 >= 60){
+                throw new IllegalArgumentException(time+" is not a 24-hour time");
+            }
+        }
+        closures.computeIfAbsent(line, l -> new ArrayList<int[]>()).add(new int[]{
+            Math.min(a, b), Math.max(a, b), Timetable.toMinutes(startTime), Timetable.toMinutes(endTime)});
+    }
+
+    /**
+     * Cancel a single service
+     */
+    public void cancel(TrainService service){
+        cancelled.add(service);
+    }
+
+    /**
+     * Return the lines that have a closure or a cancelled service
+     */
+    public Set<TrainLine> getAffectedLines(){
+        Set<TrainLine> lines = new HashSet<TrainLine>(closures.keySet());
+        for (TrainService service : cancelled){
+            lines.add(service.getTrainLine());
+        }
+        return lines;
+    }
+
+    /**
+     * Return true if a service of a line can not be used to travel from the board stop
+     * to the alight stop: it is cancelled, or it is timetabled to be in a closed section
+     * of the line while the section is closed.
+     */
+    public boolean isBlocked(TrainLine line, int service, int boardStop, int alightStop){
+        if (!cancelled.isEmpty() && cancelled.contains(line.getTrainServices().get(service))){ return true; }
+        List<int[]> lineClosures = closures.get(line);
+        if (lineClosures == null){ return false; }
+        Timetable timetable = line.getTimetable();
+        for (int[] closure : lineClosures){
+            int lo = Math.max(boardStop, closure[0]);
+            int hi = Math.min(alightStop, closure[1]);
+            if (lo >= hi){ continue; }  // the journey does not go through the closed section
+            for (int stop = lo; stop <= hi; stop++){
+                int minutes = timetable.getMinutes(service, stop);
+                if (minutes == -1){ continue; }
+                if (isClosedAt(closure, minutes % Timetable.MINUTES_PER_DAY)){ return true; }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return true if a closure is in force at a time of day in minutes: between its start
+     * and end, or for an overnight closure, after its start or before its end
+     */
+    private static boolean isClosedAt(int[] closure, int minutes){
+        if (closure[2] <= closure[3]){ return minutes >= closure[2] && minutes <= closure[3]; }
+        return minutes >= closure[2] || minutes <= closure[3];
+    }
+
+    /**
+     * Compare journeys leaving at the given time with and without this scenario.
+     * Only the pairs of stations that have a transfer pattern using an affected line
+     * are recomputed; every other journey is unchanged by construction.
+     * If the patterns of a pair arrive later in the scenario (or not at all), the
+     * timetables are searched in full before the journey is counted as slower or broken.
+     * Returns the journeys that are broken or arrive later, latest first.
+     */
+    public List<Change> diff(TransferPatterns patterns, int time){
+        Set<List<Station>> pairs = new LinkedHashSet<List<Station>>();
+        for (TrainLine line : getAffectedLines()){
+            pairs.addAll(patterns.getPairsUsing(line));
+        }
+        List<Change> changes = new ArrayList<Change>();
+        for (List<Station> pair : pairs){
+            int before = patterns.earliestArrival(pair.get(0), pair.get(1), time, null);
+            if (before == -1){ continue; }
+            int after = patterns.earliestArrival(pair.get(0), pair.get(1), time, this);
+            if (after != before){
+                // a detour that no pattern covers may still get there, or get there sooner
+                after = patterns.searchArrival(pair.get(0), pair.get(1), time, this);
+            }
+            if (after != before){
+                changes.add(new Change(pair.get(0), pair.get(1), before, after));
+            }
+        }
+        changes.sort(Comparator.comparingInt(Change::getDelay).reversed());
+        return changes;
+    }
+
+    /**
+     * Name plus number of closures and cancellations
+     */
+    public String toString(){
+        int count = 0;
+        for (List<int[]> lineClosures : closures.values()){ count += lineClosures.size(); }
+        return name+" ("+count+" closures, "+cancelled.size()+" cancellations)";
+    }
+
+    /**
+     * Change
+     * A journey that is slower, or no longer possible, in the scenario.
+     * Arrival times are 24-hour times; the new arrival is -1 if the journey is broken.
+     */
+    public static class Change{
+        private Station from;
+        private Station to;
+        private int before;
+        private int after;
+
+        public Change(Station from, Station to, int before, int after){
+            this.from = from;
+            this.to = to;
+            this.before = before;
+            this.after = after;
+        }
+
+        public Station getFrom(){
+            return from;
+        }
+
+        public Station getTo(){
+            return to;
+        }
+
+        public int getBefore(){
+            return before;
+        }
+
+        public int getAfter(){
+            return after;
+        }
+
+        public boolean isBroken(){
+            return after == -1;
+        }
+
+        /**
+         * Extra minutes the journey takes, Integer.MAX_VALUE if it is broken
+         */
+        public int getDelay(){
+            if (after == -1){ return Integer.MAX_VALUE; }
+            int delay = Timetable.toMinutes(after) - Timetable.toMinutes(before);
+            return delay < 0 ? delay + Timetable.MINUTES_PER_DAY : delay;
+        }
+
+        public String toString(){
+            if (isBroken()){ return from.getName()+" to "+to.getName()+": broken (was "+before+")"; }
+            return from.getName()+" to "+to.getName()+": arrives "+after+" (was "+before+", +"+getDelay()+" min)";
+        }
+    }
+
+}
@@ -0,0 +1,289 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+
+/**
+ * Timetable
+ * The service times of one TrainLine, compact and read-only (the line builds a new
+ * one when it changes). It is the only copy of the times: TrainService decodes its
+ * times from its row.
+ * Most services on a line stop at the same stations with the same gaps between
+ * stops, and only differ in their start time. So instead of a list of times for
+ * every service, the timetable keeps
+ * - a list of stop-offset patterns: minutes after the start of the service that the
+ *   train leaves each station on the line (-1 if the train does not stop there)
+ * - a list of runs: services that share a pattern and leave at a regular headway
+ *   are stored once as (pattern, first start, headway, count)
+ * Times are decoded on the fly when asked for, and are returned as 24-hour times
+ * (eg 1425 for 2:45pm), the same as TrainService.
+ * Services are numbered in the same order as TrainLine.getTrainServices().
+ */
+
+public class Timetable{
+    public static final int MINUTES_PER_DAY = 24*60;
+
+    // all final, so a timetable built on one thread can be read safely by others
+    private final int stopCount;                                 // number of stations on the line
+    private final int size;                                      // number of services
+    private final List<int[]> patterns = new ArrayList<int[]>(); // stop offsets, in minutes
+    private final int[] runPattern;   // pattern id of each run
+    private final int[] runFirst;     // start of the first service in each run, in minutes
+    private final int[] runHeadway;   // minutes between the services in each run
+    private final int[] runCount;     // number of services in each run
+    private final int[] runIndex;     // index of the first service in each run
+    private final int[][] stopRuns;   // for each stop, the runs whose pattern stops there
+    private final int[][] stopLast;   // for each stop, the last departure of each of those runs, in minutes
+    private final boolean[] stopSorted;   // true if stopLast is in increasing order (so it can be binary searched)
+
+    /**
+     * Build the timetable from the times of the services of a train line, one row
+     * per service in line order (a row shorter than the number of stops is padded with -1).
+     */
+    Timetable(int stopCount, List<int[]> rows){
+        int size = 0;
+        Map<String, Integer> patternIds = new HashMap<String, Integer>();
+        List<int[]> runs = new ArrayList<int[]>();  // {pattern, first, headway, count}
+        for (int[] times : rows){
+            int[] offsets = new int[Math.max(stopCount, times.length)];
+            Arrays.fill(offsets, -1);
+            int start = -1;
+            int previous = -1;
+            int stop = 0;
+            for (int time : times){
+                if (time != -1){
+                    int minutes = toMinutes(time);
+                    if (start == -1){ start = minutes; }
+                    // a service that runs past midnight keeps counting up
+                    while (minutes < previous){ minutes += MINUTES_PER_DAY; }
+                    previous = minutes;
+                    offsets[stop] = minutes - start;
+                }
+                stop++;
+            }
+            if (start == -1){ start = 0; }  // no stops at all: an all -1 pattern
+            stopCount = offsets.length;
+
+            String key = Arrays.toString(offsets);
+            Integer pattern = patternIds.get(key);
+            if (pattern == null){
+                pattern = patterns.size();
+                patterns.add(offsets);
+                patternIds.put(key, pattern);
+            }
+
+            int[] last = runs.isEmpty() ? null : runs.get(runs.size()-1);
+            if (last != null && last[0] == pattern && start >= last[1] &&
+                (last[3] == 1 || start - (last[1] + last[2]*(last[3]-1)) == last[2])){
+                if (last[3] == 1){ last[2] = start - last[1]; }
+                last[3]++;
+            }
+            else {
+                runs.add(new int[]{pattern, start, 0, 1});
+            }
+            size++;
+        }
+        this.stopCount = stopCount;
+        this.size = size;
+
+        runPattern = new int[runs.size()];
+        runFirst = new int[runs.size()];
+        runHeadway = new int[runs.size()];
+        runCount = new int[runs.size()];
+        runIndex = new int[runs.size()];
+        int index = 0;
+        for (int r = 0; r < runs.size(); r++){
+            int[] run = runs.get(r);
+            runPattern[r] = run[0];
+            runFirst[r] = run[1];
+            runHeadway[r] = run[2];
+            runCount[r] = run[3];
+            runIndex[r] = index;
+            index += run[3];
+        }
+
+        // a column of ints for each stop, holding the last departure of each run that
+        // stops there, so a departure scan reads one small contiguous array and skips
+        // the runs that don't stop without looking at them
+        stopRuns = new int[stopCount][];
+        stopLast = new int[stopCount][];
+        stopSorted = new boolean[stopCount];
+        int[] stopping = new int[runPattern.length];
+        for (int stop = 0; stop < stopCount; stop++){
+            int count = 0;
+            for (int r = 0; r < runPattern.length; r++){
+                if (patterns.get(runPattern[r])[stop] != -1){ stopping[count++] = r; }
+            }
+            stopRuns[stop] = Arrays.copyOf(stopping, count);
+            stopLast[stop] = new int[count];
+            stopSorted[stop] = true;
+            for (int i = 0; i < count; i++){
+                int r = stopping[i];
+                stopLast[stop][i] = runFirst[r] + runHeadway[r]*(runCount[r]-1) + patterns.get(runPattern[r])[stop];
+                if (i > 0 && stopLast[stop][i] < stopLast[stop][i-1]){ stopSorted[stop] = false; }
+            }
+        }
+    }
+
+    //Getters
+    /**
+     * Number of services in the timetable
+     */
+    public int size(){
+        return size;
+    }
+
+    public int getStopCount(){
+        return stopCount;
+    }
+
+    public int getPatternCount(){
+        return patterns.size();
+    }
+
+    public int getRunCount(){
+        return runPattern.length;
+    }
+
+    /**
+     * Return the time that a service leaves the station at the given stop
+     *  on the line, or -1 if the service does not stop there.
+     */
+    public int getTime(int service, int stop){
+        int minutes = getMinutes(service, stop);
+        return minutes == -1 ? -1 : toClockTime(minutes);
+    }
+
+    /**
+     * Return the start time of a service (the time at its first real stop)
+     */
+    public int getStart(int service){
+        int r = findRun(service);
+        return toClockTime(runFirst[r] + runHeadway[r]*(service - runIndex[r]));
+    }
+
+    /**
+     * Return the index of the first service that leaves the given stop at or
+     * after the given time, skipping services that do not stop there.
+     *  -1 if there is no such service.
+     */
+    public int nextDeparture(int stop, int time){
+        return firstDeparture(stop, toMinutes(time));
+    }
+
+    /**
+     * Same as nextDeparture, but the time is given in minutes (as returned by
+     * getMinutes), so it can be later than midnight.
+     * Finds the first run at the stop whose last departure is not too early: by binary
+     * search when services are in time order at the stop (as they are in the data files),
+     * otherwise by a scan of the stop's column. The service within the run is then
+     * worked out directly, since its departures are evenly spaced.
+     */
+    public int firstDeparture(int stop, int minutes){
+        int[] last = stopLast[stop];
+        int i;
+        if (stopSorted[stop]){
+            int lo = 0;
+            int hi = last.length;
+            while (lo < hi){
+                int mid = (lo + hi) >>> 1;
+                if (last[mid] < minutes){ lo = mid + 1; }
+                else { hi = mid; }
+            }
+            i = lo;
+        }
+        else {
+            i = 0;
+            while (i < last.length && last[i] < minutes){ i++; }
+        }
+        if (i == last.length){ return -1; }
+        int r = stopRuns[stop][i];
+        int first = runFirst[r] + patterns.get(runPattern[r])[stop];
+        if (first >= minutes){ return runIndex[r]; }
+        // first < minutes <= last, so the headway is not 0
+        return runIndex[r] + (minutes - first + runHeadway[r] - 1) / runHeadway[r];
+    }
+
+    /**
+     * Return true if the services leave the stop in time order (false once a service
+     * has been added out of order)
+     */
+    public boolean isInOrder(int stop){
+        return stopSorted[stop];
+    }
+
+    /**
+     * Return the departures from a stop in service order, in minutes (as returned by
+     * getMinutes), leaving out services that don't stop there.
+     * Reads the stop's runs directly, so it takes time linear in the number of departures.
+     */
+    public int[] getDepartures(int stop){
+        int count = 0;
+        for (int r : stopRuns[stop]){ count += runCount[r]; }
+        int[] departures = new int[count];
+        int i = 0;
+        for (int r : stopRuns[stop]){
+            int time = runFirst[r] + patterns.get(runPattern[r])[stop];
+            for (int k = 0; k < runCount[r]; k++){
+                departures[i++] = time;
+                time += runHeadway[r];
+            }
+        }
+        return departures;
+    }
+
+    /**
+     * Time that a service leaves the given stop, in minutes from the start of the
+     * day in which the service started (may be more than a day for services
+     * that run past midnight).  -1 if the service does not stop there.
+     */
+    public int getMinutes(int service, int stop){
+        int r = findRun(service);
+        int offset = patterns.get(runPattern[r])[stop];
+        if (offset == -1){ return -1; }
+        return runFirst[r] + runHeadway[r]*(service - runIndex[r]) + offset;
+    }
+
+    /**
+     * Find the run containing a service, by binary search on the run start indexes
+     */
+    private int findRun(int service){
+        if (service < 0 || service >= size){
+            throw new IndexOutOfBoundsException("service "+service+" of "+size);
+        }
+        int lo = 0;
+        int hi = runIndex.length - 1;
+        while (lo < hi){
+            int mid = (lo + hi + 1) >>> 1;
+            if (runIndex[mid] <= service){ lo = mid; }
+            else { hi = mid - 1; }
+        }
+        return lo;
+    }
+
+    /**
+     * Convert a 24-hour time (eg 1425) to minutes after midnight (eg 865)
+     */
+    public static int toMinutes(int time){
+        return (time/100)*60 + time%100;
+    }
+
+    /**
+     * Convert minutes after midnight to a 24-hour time, wrapping past midnight
+     */
+    public static int toClockTime(int minutes){
+        minutes = minutes % MINUTES_PER_DAY;
+        return (minutes/60)*100 + minutes%60;
+    }
+
+    /**
+     * String contains the number of services, patterns and runs
+     */
+    public String toString(){
+        return size+" services ("+patterns.size()+" patterns, "+runPattern.length+" runs)";
+    }
+
+}
@@ -0,0 +1,135 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+
+/**
+ * TimetableBenchmark
+ * Measures the next-departure kernel (Timetable.firstDeparture, which searches the
+ * per-stop columns) against a plain scan of every service at the stop, on the lines
+ * in the data files. Both are given the same random (stop, time) queries, and their
+ * answers are checked against each other before anything is timed.
+ * Each method is run for a few warm-up rounds first, so the JIT has compiled it;
+ * the report gives the best and median time per query over the measured rounds.
+ *
+ * Usage: java TimetableBenchmark [data directory] [queries per round] [rounds]
+ */
+
+public class TimetableBenchmark{
+    private static final int WARMUP_ROUNDS = 5;
+
+    private List<Timetable> timetables = new ArrayList<Timetable>();
+    private int[] queryLine;
+    private int[] queryStop;
+    private int[] queryMinutes;
+    private long sink;   // sum of the answers, so the work is not optimised away
+
+    /**
+     * Make random queries (seeded, so runs are comparable) over the lines of a network
+     */
+    public TimetableBenchmark(Collection<TrainLine> lines, int queries){
+        for (TrainLine line : lines){
+            Timetable timetable = line.getTimetable();
+            if (timetable.size() > 0 && timetable.getStopCount() > 0){ timetables.add(timetable); }
+        }
+        Random random = new Random(42);
+        queryLine = new int[queries];
+        queryStop = new int[queries];
+        queryMinutes = new int[queries];
+        for (int q = 0; q < queries; q++){
+            queryLine[q] = random.nextInt(timetables.size());
+            queryStop[q] = random.nextInt(timetables.get(queryLine[q]).getStopCount());
+            queryMinutes[q] = random.nextInt(Timetable.MINUTES_PER_DAY);
+        }
+    }
+
+    /**
+     * The kernel: binary search (or column scan) of the stop's runs
+     */
+    private int kernel(int q){
+        return timetables.get(queryLine[q]).firstDeparture(queryStop[q], queryMinutes[q]);
+    }
+
+    /**
+     * The baseline: look at each service in turn, skipping those that don't stop
+     */
+    private int scan(int q){
+        Timetable timetable = timetables.get(queryLine[q]);
+        for (int s = 0; s < timetable.size(); s++){
+            int minutes = timetable.getMinutes(s, queryStop[q]);
+            if (minutes != -1 && minutes >= queryMinutes[q]){ return s; }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the number of queries on which the two methods disagree
+     */
+    public int check(){
+        int wrong = 0;
+        for (int q = 0; q < queryLine.length; q++){
+            if (kernel(q) != scan(q)){ wrong++; }
+        }
+        return wrong;
+    }
+
+    /**
+     * Time one round of all the queries, in nanoseconds per query
+     */
+    private double round(boolean useKernel){
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int q = 0; q < queryLine.length; q++){
+            sum += useKernel ? kernel(q) : scan(q);
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += sum;
+        return (double)elapsed / queryLine.length;
+    }
+
+    /**
+     * Warm up, then time a number of rounds. Returns the times per query, sorted.
+     */
+    public double[] measure(boolean useKernel, int rounds){
+        for (int r = 0; r < WARMUP_ROUNDS; r++){ round(useKernel); }
+        double[] times = new double[rounds];
+        for (int r = 0; r < rounds; r++){ times[r] = round(useKernel); }
+        Arrays.sort(times);
+        return times;
+    }
+
+    private static String summary(String name, double[] times){
+        return String.format("%-14s best %7.1f ns/query, median %7.1f ns/query", name, times[0], times[times.length/2]);
+    }
+
+    /**
+     * main method runs the benchmark and prints the report
+     *
+     * @param args data directory, number of queries per round, number of rounds
+     */
+    public static void main(String[] args) throws IOException{
+        File directory = new File(args.length > 0 ? args[0] : ".");
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        TrainNetwork network = TrainNetwork.load(directory, false);
+        TimetableBenchmark benchmark = new TimetableBenchmark(network.getTrainLines().values(), queries);
+        int wrong = benchmark.check();
+        if (wrong > 0){
+            System.out.println("firstDeparture disagrees with the scan on "+wrong+" of "+queries+" queries");
+            return;
+        }
+        System.out.println("Next departure, "+queries+" random queries over "+network+", "+rounds+" rounds");
+        double[] kernel = benchmark.measure(true, rounds);
+        double[] scan = benchmark.measure(false, rounds);
+        System.out.println(summary("firstDeparture", kernel));
+        System.out.println(summary("service scan", scan));
+        System.out.printf("speed-up %.1fx (median)%n", scan[rounds/2] / kernel[rounds/2]);
+        if (benchmark.sink == 42){ System.out.println(); }   // keeps the sum live
+    }
+
+}
@@ -27,6 +27,8 @@ public class TrainLine{
     private String name;
     private List<Station> stationsTL = new ArrayList<Station>();             // list of stations on the line
     private List<TrainService> trainServices = new ArrayList<TrainService>(); // set of TrainServices running on the line
+    private volatile Timetable timetable;                                     // the service times (null after a change)
+    private Timetable lastTimetable;                                          // the one before the change, until it is rebuilt
 
     //Constructor
     public TrainLine(String name){
@@ -37,15 +39,36 @@ public class TrainLine{
     /**
      * Add a TrainService to the set of TrainServices for this line
      */
-    public void addTrainService(TrainService train){
+    public synchronized void addTrainService(TrainService train){
         trainServices.add(train);
+        changed();
     }
 
     /**
-     * Add a Station to the list of Stations on this line
+     * Insert a TrainService at a position in the list of TrainServices for this line
+     * (the caller must keep the services in time order)
      */
-    public void addStation(Station station){
+    public synchronized void addTrainService(int index, TrainService train){
+        trainServices.add(index, train);
+        changed();
+    }
+
+    /**
+     * Add a Station to the list of Stations on this line.
+     * Services already on the line get a -1 time for it (they don't stop there):
+     * the next timetable pads every service out to one time per station.
+     */
+    public synchronized void addStation(Station station){
         stationsTL.add(station);
+        changed();
+    }
+
+    /**
+     * Keep the current timetable until the next one is built from it
+     */
+    private void changed(){
+        if (timetable != null){ lastTimetable = timetable; }
+        timetable = null;
     }
 
     //Getters
@@ -61,6 +84,34 @@ public class TrainLine{
         return Collections.unmodifiableList(trainServices); // an unmodifiable version of the list of trainServices
     }
 
+    /**
+     * Return the compressed timetable of the services on this line, which is the only
+     * copy of their times. It is built on first use, and rebuilt after the line is changed,
+     * from the times of the services added since and the rows of the last timetable.
+     * Safe to call from several threads: only one of them builds the timetable.
+     */
+    public Timetable getTimetable(){
+        Timetable current = timetable;
+        if (current == null){
+            synchronized (this){
+                current = timetable;
+                if (current == null){
+                    List<int[]> rows = new ArrayList<int[]>(trainServices.size());
+                    for (TrainService service : trainServices){
+                        rows.add(service.getRow(lastTimetable));
+                    }
+                    current = new Timetable(stationsTL.size(), rows);
+                    for (int i = 0; i < trainServices.size(); i++){
+                        trainServices.get(i).setRow(i);
+                    }
+                    lastTimetable = null;
+                    timetable = current;
+                }
+            }
+        }
+        return current;
+    }
+
     /**
      * String contains name of the train line name plus number of stations and number of services
      */
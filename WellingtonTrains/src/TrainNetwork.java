@@ -0,0 +1,621 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.*;
+
+/**
+ * TrainNetwork
+ * All the stations, train lines and train services of one region, loaded from
+ * the data files in a directory:
+ * - stations.data: one station per line (name, fare zone, distance from Wellington)
+ * - train-lines.data: one train line name per line
+ * - <line>-stations.data: the stations on the line, in order
+ * - <line>-services.data: one service per line, with a time for each station on the line
+ *
+ * The data is checked as it is read, in the same single pass: unknown station names,
+ * services with the wrong number of times, invalid times, services that never stop,
+ * times that go backwards along a service, and services that are out of order.
+ * The problems are collected in a LoadReport. In strict mode the first problem
+ * stops the load; otherwise the bad row is left out.
+ *
+ * The version of the network is the number of edits made to it since it was loaded
+ * from the data files; snapshots record it, so a journal knows which edits they contain.
+ * ChangeListeners are told about each edit, so views of the timetable (eg HeadwayReport)
+ * can work out again just the line that changed.
+ */
+
+public class TrainNetwork{
+    private static final int SNAPSHOT_MAGIC = 0x57545334;   // "WTS4"
+
+    private File directory;
+    private Map<String, Station> stations = new HashMap<String, Station>();
+    private List<TrainService> trainServices = new ArrayList<TrainService>();
+    private Map<String, TrainLine> trainLines = new HashMap<String, TrainLine>();
+    private LoadReport report;
+    private long version;        // number of edits since the data files were loaded
+    private long dataChecksum;   // of the data files the network was loaded from
+    private List<ChangeListener> listeners = new CopyOnWriteArrayList<ChangeListener>();
+
+    private TrainNetwork(File directory, boolean strict){
+        this.directory = directory;
+        this.report = new LoadReport(strict);
+    }
+
+    /**
+     * Load and check the network in the data files of a directory.
+     * Throws an IOException if a file can't be read, or (in strict mode) on the first problem.
+     */
+    public static TrainNetwork load(File directory, boolean strict) throws IOException{
+        TrainNetwork network = new TrainNetwork(directory, strict);
+        network.dataChecksum = dataChecksum(directory);
+        loadStations(new File(directory, "stations.data"), network.report, network.stations);
+        File linesFile = new File(directory, "train-lines.data");
+        try (Scanner sc = new Scanner(linesFile)){
+            int lineNumber = 0;
+            while (sc.hasNextLine()){
+                String name = sc.nextLine().trim();
+                lineNumber++;
+                if (name.isEmpty()){ continue; }
+                if (network.trainLines.containsKey(name)){
+                    network.report.problem(linesFile, lineNumber, "duplicate train line "+name);
+                    continue;
+                }
+                if (!lineFilesExist(directory, name, network.report, linesFile, lineNumber)){ continue; }
+                network.loadTrainLine(name);
+            }
+        }
+        return network;
+    }
+
+    /**
+     * Return whether both data files of a train line are in the directory; if one is missing,
+     * report it against the line's row of the train lines file, so the line is skipped
+     * (also used by OffHeapNetwork).
+     */
+    static boolean lineFilesExist(File directory, String name, LoadReport report, File linesFile, int lineNumber) throws IOException{
+        for (String suffix : new String[]{"-stations.data", "-services.data"}){
+            if (!new File(directory, name+suffix).isFile()){
+                report.problem(linesFile, lineNumber, "missing "+name+suffix+" for train line "+name);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read and check a stations file, putting the stations in the map by name
+     * (also used by OffHeapNetwork, which reads the data files itself).
+     */
+    static void loadStations(File file, LoadReport report, Map<String, Station> stations) throws IOException{
+        try (Scanner sc = new Scanner(file)){
+            int lineNumber = 0;
+            while (sc.hasNextLine()){
+                String row = sc.nextLine().trim();
+                lineNumber++;
+                if (row.isEmpty()){ continue; }
+                report.checked();
+                String[] values = row.split("\\s+");
+                if (values.length != 3){
+                    report.problem(file, lineNumber, "expected name, zone and distance but found "+values.length+" values");
+                    continue;
+                }
+                int zone;
+                double distance;
+                try {
+                    zone = Integer.parseInt(values[1]);
+                    distance = Double.parseDouble(values[2]);
+                }
+                catch (NumberFormatException ex){
+                    report.problem(file, lineNumber, "bad number: "+ex.getMessage());
+                    continue;
+                }
+                if (stations.containsKey(values[0])){
+                    report.problem(file, lineNumber, "duplicate station "+values[0]);
+                    continue;
+                }
+                if (zone < 1 || distance < 0){
+                    report.problem(file, lineNumber, "bad zone or distance for "+values[0]);
+                    continue;
+                }
+                stations.put(values[0], new Station(values[0], zone, distance));
+            }
+        }
+    }
+
+    private void loadTrainLine(String name) throws IOException{
+        TrainLine line = new TrainLine(name);
+        trainLines.put(name, line);
+
+        // one column per row of the stations file; an unknown station keeps its column (so the
+        // services rows still line up) but is left out of the line, with its times
+        List<Boolean> known = new ArrayList<Boolean>();
+        List<Integer> rows = new ArrayList<Integer>();   // row of the stations file of each column
+        File stationsFile = new File(directory, name+"-stations.data");
+        try (Scanner sc = new Scanner(stationsFile)){
+            int lineNumber = 0;
+            while (sc.hasNextLine()){
+                String stationName = sc.nextLine().trim();
+                lineNumber++;
+                if (stationName.isEmpty()){ continue; }
+                report.checked();
+                Station station = stations.get(stationName);
+                known.add(station != null);
+                rows.add(lineNumber);
+                if (station == null){
+                    report.problem(stationsFile, lineNumber, "unknown station "+stationName+" (its times are left out of every service)");
+                    continue;
+                }
+                line.addStation(station);
+                station.addTrainLine(line);
+            }
+        }
+
+        File servicesFile = new File(directory, name+"-services.data");
+        int width = known.size();
+        int[] lastTimes = new int[width];   // minutes of the previous service at each stop
+        Arrays.fill(lastTimes, -1);
+        boolean[] stopped = new boolean[width];   // whether any service stops at each column
+        try (Scanner sc = new Scanner(servicesFile)){
+            int lineNumber = 0;
+            while (sc.hasNextLine()){
+                String row = sc.nextLine().trim();
+                lineNumber++;
+                if (row.isEmpty()){ continue; }
+                report.checked();
+                int[] times = checkService(report, servicesFile, lineNumber, row, width, lastTimes);
+                if (times == null){ continue; }
+                markStops(times, stopped);
+                TrainService service = new TrainService(line);
+                int column = 0;   // column of the line
+                for (int i = 0; i < times.length; i++){
+                    if (!known.get(i)){ continue; }
+                    service.addTime(times[i], column == 0);
+                    column++;
+                }
+                trainServices.add(service);
+                line.addTrainService(service);
+            }
+        }
+        checkStopped(report, stationsFile, known, rows, stopped, !line.getTrainServices().isEmpty());
+    }
+
+    /**
+     * Note the columns of a checked service where it stops
+     */
+    static void markStops(int[] times, boolean[] stopped){
+        for (int i = 0; i < times.length; i++){
+            if (times[i] != -1){ stopped[i] = true; }
+        }
+    }
+
+    /**
+     * Check where the -1s fall across the services of a line: a service may start or end part
+     * way along the line and run express past stations, so -1 can be anywhere in a row, but a
+     * station with -1 in every service is a station no train stops at, and is reported against
+     * its row of the stations file (also used by OffHeapNetwork).
+     */
+    static void checkStopped(LoadReport report, File stationsFile, List<Boolean> known, List<Integer> rows,
+                             boolean[] stopped, boolean anyServices) throws IOException{
+        if (!anyServices){ return; }
+        for (int i = 0; i < stopped.length; i++){
+            if (known.get(i) && !stopped[i]){
+                report.problem(stationsFile, rows.get(i), "no service on the line stops at this station (-1 in every service)");
+            }
+        }
+    }
+
+    /**
+     * Return a checksum of the contents of the data files in a directory, so a copy of the
+     * network (eg a snapshot) can tell whether the files have changed since it was made.
+     */
+    public static long dataChecksum(File directory) throws IOException{
+        CRC32 crc = new CRC32();
+        List<String> names = new ArrayList<String>();
+        names.add("stations.data");
+        names.add("train-lines.data");
+        File linesFile = new File(directory, "train-lines.data");
+        if (linesFile.exists()){
+            for (String line : Files.readAllLines(linesFile.toPath())){
+                if (line.trim().isEmpty()){ continue; }
+                names.add(line.trim()+"-stations.data");
+                names.add(line.trim()+"-services.data");
+            }
+        }
+        for (String name : names){
+            File file = new File(directory, name);
+            crc.update(name.getBytes());
+            if (file.exists()){ crc.update(Files.readAllBytes(file.toPath())); }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Parse and check one row of a services file, recording any problem in the report.
+     * Returns the times, or null if the row has a problem (and the report is not strict).
+     * lastTimes holds the minutes of the previous service at each stop, and is updated.
+     */
+    static int[] checkService(LoadReport report, File file, int lineNumber, String row, int width, int[] lastTimes) throws IOException{
+        String[] values = row.split("\\s+");
+        if (values.length != width){
+            report.problem(file, lineNumber, "expected "+width+" times (one per station) but found "+values.length);
+            return null;
+        }
+        int[] times = new int[width];
+        int[] minutes = new int[width];
+        int stops = 0;
+        int previous = -1;
+        for (int i = 0; i < width; i++){
+            try {
+                times[i] = Integer.parseInt(values[i]);
+            }
+            catch (NumberFormatException ex){
+                report.problem(file, lineNumber, "bad time "+values[i]);
+                return null;
+            }
+            minutes[i] = -1;
+            if (times[i] == -1){ continue; }
+            if (times[i] < 0 || times[i]%100 >= 60 || times[i]/100 >= 24){
+                report.problem(file, lineNumber, "bad time "+values[i]+" (use 24-hour times, or -1 for no stop)");
+                return null;
+            }
+            int m = Timetable.toMinutes(times[i]);
+            // a service can run past midnight, but can't go back in time
+            if (previous != -1 && m < previous){
+                if (previous - m < Timetable.MINUTES_PER_DAY/2){
+                    report.problem(file, lineNumber, "time "+values[i]+" is earlier than the previous stop");
+                    return null;
+                }
+                m += Timetable.MINUTES_PER_DAY;
+            }
+            minutes[i] = m;
+            previous = m;
+            stops++;
+        }
+        if (stops < 2){
+            report.problem(file, lineNumber, "a service must stop at two or more stations (found "+stops+")");
+            return null;
+        }
+        for (int i = 0; i < width; i++){
+            if (minutes[i] != -1 && lastTimes[i] != -1 && minutes[i] < lastTimes[i]){
+                report.problem(file, lineNumber, "service leaves stop "+(i+1)+" before the service above it");
+                return null;
+            }
+        }
+        for (int i = 0; i < width; i++){
+            if (minutes[i] != -1){ lastTimes[i] = minutes[i]; }
+        }
+        return times;
+    }
+
+    //Changes
+    /**
+     * Add a new service to a train line, with one time for each station on the line.
+     * The times are checked the same way as a row of a services file, and the service is
+     * put in time order among the other services on the line (as TrainLine requires).
+     * Throws IllegalArgumentException if the line doesn't exist, the times are not valid,
+     * or the service would overtake (or be overtaken by) another service.
+     */
+    public TrainService addTrainService(String lineName, int[] times){
+        return addTrainService(lineName, times, true);
+    }
+
+    /**
+     * Same as addTrainService, but the listeners are only told if tell is true
+     * (ChangeJournal makes edits holding its buffer lock, and tells them once it has let go)
+     */
+    TrainService addTrainService(String lineName, int[] times, boolean tell){
+        TrainLine line = trainLines.get(lineName);
+        if (line == null){ throw new IllegalArgumentException("Unknown train line "+lineName); }
+        StringBuilder row = new StringBuilder();
+        for (int time : times){ row.append(time).append(' '); }
+        int[] noPrevious = new int[line.getStations().size()];
+        Arrays.fill(noPrevious, -1);
+        try {
+            checkService(new LoadReport(true), new File(lineName+"-services.data"), line.getTrainServices().size()+1,
+                row.toString().trim(), line.getStations().size(), noPrevious);
+        }
+        catch (IOException ex){
+            throw new IllegalArgumentException(ex.getMessage());
+        }
+        int position = findPosition(line, times);
+        TrainService service = new TrainService(line);
+        for (int i = 0; i < times.length; i++){
+            service.addTime(times[i], i == 0);
+        }
+        trainServices.add(service);
+        line.addTrainService(position, service);
+        version++;
+        if (tell){ fireLineChanged(line); }
+        return service;
+    }
+
+    /**
+     * Return the index at which a new service (already checked) goes on a line: after every
+     * service that leaves a shared stop earlier, and before every service that leaves one later.
+     */
+    private static int findPosition(TrainLine line, int[] times){
+        int[] minutes = new int[times.length];
+        int previous = -1;
+        for (int i = 0; i < times.length; i++){
+            minutes[i] = -1;
+            if (times[i] == -1){ continue; }
+            int m = Timetable.toMinutes(times[i]);
+            if (m < previous){ m += Timetable.MINUTES_PER_DAY; }
+            minutes[i] = m;
+            previous = m;
+        }
+        Timetable timetable = line.getTimetable();
+        boolean[] earlier = new boolean[timetable.size()];
+        boolean[] later = new boolean[timetable.size()];
+        int position = 0;
+        for (int s = 0; s < timetable.size(); s++){
+            for (int stop = 0; stop < minutes.length && stop < timetable.getStopCount(); stop++){
+                int m = timetable.getMinutes(s, stop);
+                if (m == -1 || minutes[stop] == -1){ continue; }
+                if (m < minutes[stop]){ earlier[s] = true; }
+                if (m > minutes[stop]){ later[s] = true; }
+            }
+            if (earlier[s]){ position = s + 1; }
+        }
+        for (int s = 0; s < timetable.size(); s++){
+            if ((earlier[s] && later[s]) || (later[s] && s < position)){
+                throw new IllegalArgumentException("The service would overtake "+line.getTrainServices().get(s)
+                    +" (services on a line must stay in time order)");
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Add a station to the end of a train line. The services already on the line don't
+     * stop at it (their time there is -1) until services that do are added.
+     * Throws IllegalArgumentException if the line or the station doesn't exist, or the
+     * station is already on the line (a stop is found by its station, so each can only be there once).
+     */
+    public void addStation(String lineName, String stationName){
+        addStation(lineName, stationName, true);
+    }
+
+    /**
+     * Same as addStation, but the listeners are only told if tell is true
+     */
+    TrainLine addStation(String lineName, String stationName, boolean tell){
+        TrainLine line = trainLines.get(lineName);
+        Station station = stations.get(stationName);
+        if (line == null){ throw new IllegalArgumentException("Unknown train line "+lineName); }
+        if (station == null){ throw new IllegalArgumentException("Unknown station "+stationName); }
+        if (line.getStations().contains(station)){
+            throw new IllegalArgumentException(stationName+" is already on "+lineName);
+        }
+        line.addStation(station);
+        station.addTrainLine(line);
+        version++;
+        if (tell){ fireLineChanged(line); }
+        return line;
+    }
+
+    //Listeners
+    /**
+     * Add a listener to be told about each edit, after it is made (on the thread making it,
+     * and for edits made through a ChangeJournal, after the journal has let go of its lock)
+     */
+    public void addChangeListener(ChangeListener listener){
+        listeners.add(listener);
+    }
+
+    public void removeChangeListener(ChangeListener listener){
+        listeners.remove(listener);
+    }
+
+    void fireLineChanged(TrainLine line){
+        for (ChangeListener listener : listeners){
+            listener.lineChanged(line);
+        }
+    }
+
+    //Snapshots
+    /**
+     * Write the whole network to a snapshot file, which is much faster to read back than
+     * the data files. The snapshot also records the version, the checksum of the data files
+     * and the problems found in them. The file ends with a checksum of its contents.
+     */
+    public void writeSnapshot(File file) throws IOException{
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(file)){
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc)));
+            List<Station> stationList = new ArrayList<Station>(stations.values());
+            Map<Station, Integer> numbers = new HashMap<Station, Integer>();
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(version);
+            out.writeLong(dataChecksum);
+            out.writeInt(report.getRowCount());
+            out.writeInt(report.getProblems().size());
+            for (LoadReport.Problem problem : report.getProblems()){
+                out.writeUTF(problem.getFileName());
+                out.writeInt(problem.getLineNumber());
+                out.writeUTF(problem.getMessage());
+            }
+            out.writeInt(stationList.size());
+            for (Station station : stationList){
+                numbers.put(station, numbers.size());
+                out.writeUTF(station.getName());
+                out.writeInt(station.getZone());
+                out.writeDouble(station.getDistance());
+            }
+            out.writeInt(trainLines.size());
+            for (TrainLine line : trainLines.values()){
+                out.writeUTF(line.getName());
+                out.writeInt(line.getStations().size());
+                for (Station station : line.getStations()){
+                    out.writeInt(numbers.get(station));
+                }
+                out.writeInt(line.getTrainServices().size());
+                for (TrainService service : line.getTrainServices()){
+                    out.writeInt(service.getTimes().size());
+                    for (int time : service.getTimes()){
+                        out.writeShort(time);
+                    }
+                }
+            }
+            out.flush();
+            new DataOutputStream(fileOut).writeLong(crc.getValue());
+            fileOut.getFD().sync();
+        }
+    }
+
+    /**
+     * Read a network from a snapshot file written by writeSnapshot.
+     * The load report is the one made when the data files were loaded (not strict).
+     * Throws an IOException if the file is damaged (the checksum doesn't match).
+     */
+    public static TrainNetwork readSnapshot(File file, File directory) throws IOException{
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        if (bytes.length < 8){ throw new IOException("Snapshot is truncated: "+file); }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipBytes(bytes.length - 8);
+        if (in.readLong() != crc.getValue()){
+            throw new IOException("Snapshot checksum does not match: "+file);
+        }
+
+        TrainNetwork network = new TrainNetwork(directory, false);
+        in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        if (in.readInt() != SNAPSHOT_MAGIC){ throw new IOException("Not a snapshot file: "+file); }
+        network.version = in.readLong();
+        network.dataChecksum = in.readLong();
+        network.report.checked(in.readInt());
+        int problems = in.readInt();
+        for (int p = 0; p < problems; p++){
+            network.report.problem(new File(in.readUTF()), in.readInt(), in.readUTF());
+        }
+        Station[] stationList = new Station[in.readInt()];
+        for (int i = 0; i < stationList.length; i++){
+            stationList[i] = new Station(in.readUTF(), in.readInt(), in.readDouble());
+            network.stations.put(stationList[i].getName(), stationList[i]);
+        }
+        int lineCount = in.readInt();
+        for (int l = 0; l < lineCount; l++){
+            TrainLine line = new TrainLine(in.readUTF());
+            network.trainLines.put(line.getName(), line);
+            int stops = in.readInt();
+            for (int k = 0; k < stops; k++){
+                Station station = stationList[in.readInt()];
+                line.addStation(station);
+                station.addTrainLine(line);
+            }
+            int services = in.readInt();
+            for (int s = 0; s < services; s++){
+                TrainService service = new TrainService(line);
+                int times = in.readInt();
+                for (int i = 0; i < times; i++){
+                    service.addTime(in.readShort(), i == 0);
+                }
+                network.trainServices.add(service);
+                line.addTrainService(service);
+            }
+        }
+        return network;
+    }
+
+    //Getters
+    public File getDirectory(){
+        return directory;
+    }
+
+    public Map<String, Station> getStations(){
+        return Collections.unmodifiableMap(stations);
+    }
+
+    public Map<String, TrainLine> getTrainLines(){
+        return Collections.unmodifiableMap(trainLines);
+    }
+
+    public List<TrainService> getTrainServices(){
+        return Collections.unmodifiableList(trainServices);
+    }
+
+    public LoadReport getLoadReport(){
+        return report;
+    }
+
+    /**
+     * Number of edits made to the network since it was loaded from the data files
+     */
+    public long getVersion(){
+        return version;
+    }
+
+    /**
+     * Checksum of the data files the network was loaded from (see dataChecksum)
+     */
+    public long getDataChecksum(){
+        return dataChecksum;
+    }
+
+    //Queries
+    /**
+     * Return the train lines through a station (empty if there is no such station)
+     */
+    public Set<TrainLine> getLinesAt(String stationName){
+        Station station = stations.get(stationName);
+        if (station == null){ return Collections.emptySet(); }
+        return station.getTrainLines();
+    }
+
+    /**
+     * Return the stations on a train line (empty if there is no such line)
+     */
+    public List<Station> getStationsOn(String lineName){
+        TrainLine line = trainLines.get(lineName);
+        if (line == null){ return Collections.emptyList(); }
+        return line.getStations();
+    }
+
+    /**
+     * Return the services on a train line (empty if there is no such line)
+     */
+    public List<TrainService> getServicesOn(String lineName){
+        TrainLine line = trainLines.get(lineName);
+        if (line == null){ return Collections.emptyList(); }
+        return line.getTrainServices();
+    }
+
+    /**
+     * Return the services of every train line through a station, lines in alphabetical order
+     */
+    public List<TrainService> getServicesAt(String stationName){
+        SortedMap<String, TrainLine> lines = new TreeMap<String, TrainLine>();
+        for (TrainLine line : getLinesAt(stationName)){
+            lines.put(line.getName(), line);
+        }
+        List<TrainService> services = new ArrayList<TrainService>();
+        for (TrainLine line : lines.values()){
+            services.addAll(line.getTrainServices());
+        }
+        return services;
+    }
+
+    /**
+     * Number of stations, lines and services
+     */
+    public String toString(){
+        return directory.getName()+" ("+stations.size()+" stations, "+trainLines.size()+" lines, "+trainServices.size()+" services)";
+    }
+
+    /**
+     * ChangeListener
+     * Told when the stations or services of a train line have been edited
+     */
+    public interface ChangeListener{
+        void lineChanged(TrainLine line);
+    }
+
+}
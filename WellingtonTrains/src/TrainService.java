@@ -18,14 +18,17 @@ import java.io.*;
  *  - a ID of the train (the name of the line concatenated with the starting time of the train)
  *  - a list of times (integers representing 24-hour time, eg 1425 for 2:45pm), one for
  *     each station on the train line. A time is -1 if the train does not stop at the station.
+ *     The times are only held here while the service is being made: once it is on its line,
+ *     the line's Timetable holds them (as a stop pattern and a run), and getTimes() decodes them.
  * The getStart() method will return the first real time in the list of times
  */
 
 public class TrainService{
     // Fields
     private TrainLine trainLine;  
-    private String trainID;    // train line name + starting time of the train
-    private List<Integer> times = new ArrayList<Integer>();
+    private short idTime = -1;  // starting time of the train in the ID (plus 10000 if it doesn't start at the first stop)
+    private short[] times = new short[0];   // times given to addTime, until the line's timetable takes them (then null)
+    private int row = -1;                   // row of the service in its line's timetable, once it has taken the times
 
     //Constructor
     /**
@@ -40,12 +43,34 @@ public class TrainService{
         return trainLine;
     }
 
+    /**
+     * The ID is worked out when asked for, rather than kept as a String in every service
+     */
     public String getTrainID(){
-        return this.trainID;
+        if (idTime == -1){ return null; }
+        return trainLine.getName()+"-"+idTime;
     }
 
+    /**
+     * Return an unmodifiable list of the times, decoded from the line's timetable
+     * (or the times given so far, if the service is not on its line yet)
+     */
     public List<Integer> getTimes(){
-        return Collections.unmodifiableList(times);  // unmodifiable version of the list of times.
+        synchronized (trainLine){
+            Timetable timetable = trainLine.getTimetable();   // takes in the times of services just added
+            if (times != null){
+                short[] given = times;
+                return new AbstractList<Integer>(){
+                    public Integer get(int i){ return (int)given[i]; }
+                    public int size(){ return given.length; }
+                };
+            }
+            int service = row;
+            return new AbstractList<Integer>(){
+                public Integer get(int i){ return timetable.getTime(service, i); }
+                public int size(){ return timetable.getStopCount(); }
+            };
+        }
     }
 
     // Other methods.
@@ -53,14 +78,16 @@ public class TrainService{
      * Add the next time to the TrainService
      */	
 	public void addTime(int time, boolean firstStop){
-        times.add(time);
-        if (trainID==null && time != -1){
+        if (times == null){ throw new IllegalStateException(getTrainID()+" is already in the timetable of its line"); }
+        times = Arrays.copyOf(times, times.length + 1);
+        times[times.length - 1] = (short)time;
+        if (idTime==-1 && time != -1){
             if (firstStop) {
-                trainID = trainLine.getName()+"-"+time;
+                idTime = (short)time;
             }
             else {
                 time += 10000;
-                trainID = trainLine.getName()+"-"+time;
+                idTime = (short)time;
             }           
         }
     }
@@ -70,7 +97,7 @@ public class TrainService{
      *  -1 if no start times
      */
     public int getStart(){
-        for (int time : times){
+        for (int time : getTimes()){
             if (time!=-1){return time;}
         }
         return -1;
@@ -80,10 +107,31 @@ public class TrainService{
      * ID plus number of stops
      */
     public String toString(){
-        if (trainID==null){return trainLine.getName()+"-unknownStart";}
+        if (idTime==-1){return trainLine.getName()+"-unknownStart";}
         int count = 0;
-        for (int time : times) {if (time!=-1) count++;}
-        return trainID+" ("+count+" stops)";
+        for (int time : getTimes()) {if (time!=-1) count++;}
+        return getTrainID()+" ("+count+" stops)";
+    }
+
+    /**
+     * Return the times of the service as a row of a new timetable for its line: the times
+     * given to addTime if the line hasn't taken them yet, otherwise its row of the last one.
+     * Only called by the line, holding its lock.
+     */
+    int[] getRow(Timetable last){
+        int[] result = new int[times != null ? times.length : last.getStopCount()];
+        for (int i = 0; i < result.length; i++){
+            result[i] = times != null ? times[i] : last.getTime(row, i);
+        }
+        return result;
+    }
+
+    /**
+     * The line's new timetable holds the times of the service, at the given row
+     */
+    void setRow(int row){
+        this.row = row;
+        times = null;
     }
 
 }
@@ -0,0 +1,516 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * TransferPatterns
+ * Precomputed routes between every pair of stations.
+ * A transfer pattern is the sequence of train lines to take to get from one station
+ * to another, with the stations to get on and off each line (a list of Legs).
+ * For each pair of stations we keep every pattern that is the best at some time of day:
+ * the journey that arrives first, leaving at that time, with at most so many lines.
+ * So a slow direct line does not hide a faster journey with a change, and a journey
+ * query only has to follow the few patterns for the pair.
+ *
+ * The patterns are found by a round based search (round k finds the earliest arrival at
+ * every station using at most k lines), run from each origin station at every time a
+ * train leaves it. Origins are searched in parallel. The same search, without patterns,
+ * is available for journeys the patterns can't be trusted for (eg in a Scenario).
+ *
+ * Computing the patterns is the slow part, so they are saved to a file with a checksum
+ * of the network they were computed from; loadOrCompute() uses the file while the
+ * network is unchanged. To build the file ahead of time: java TransferPatterns [data directory]
+ */
+
+public class TransferPatterns{
+    public static final int MAX_LEGS = 4;        // most lines in a journey
+    public static final String FILE_NAME = "transfer.patterns";
+    private static final int MAGIC = 0x57545033; // "WTP3"
+    private static final int NONE = Integer.MAX_VALUE;   // not reached
+
+    private Map<Station, Map<Station, List<List<Leg>>>> patterns;
+    private Station[] stationList;                 // stations by number, for the search
+    private Map<Station, Integer> stationNums = new HashMap<Station, Integer>();
+    private Map<TrainLine, List<List<Station>>> pairsByLine;   // built on first use
+
+    private TransferPatterns(Collection<Station> stations, Map<Station, Map<Station, List<List<Leg>>>> patterns){
+        this.patterns = patterns;
+        this.stationList = stations.toArray(new Station[0]);
+        for (Station station : stationList){
+            stationNums.put(station, stationNums.size());
+        }
+    }
+
+    /**
+     * Compute the transfer patterns between all pairs of the given stations.
+     * Each origin station is searched independently, in parallel.
+     */
+    public static TransferPatterns compute(Collection<Station> stations){
+        TransferPatterns result = new TransferPatterns(stations, new ConcurrentHashMap<Station, Map<Station, List<List<Leg>>>>());
+        stations.parallelStream().forEach(origin -> result.patterns.put(origin, result.profile(origin)));
+        return result;
+    }
+
+    /**
+     * Load the patterns from a file if it was saved for the same network; otherwise compute
+     * them and save them to the file for next time
+     */
+    public static TransferPatterns loadOrCompute(File file, Map<String, Station> stations, Map<String, TrainLine> lines){
+        if (file.exists()){
+            try {
+                return load(file, stations, lines);
+            }
+            catch (IOException ex){
+                System.out.println("Computing transfer patterns again: "+ex.getMessage());
+            }
+        }
+        TransferPatterns result = compute(stations.values());
+        try {
+            result.save(file);
+        }
+        catch (IOException ex){
+            System.out.println("Transfer patterns not saved: "+ex.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Find the patterns from an origin: search from every time a train leaves it, and keep the
+     * journey to each station from every round that improved on the rounds before
+     */
+    private Map<Station, List<List<Leg>>> profile(Station origin){
+        SortedSet<Integer> departures = new TreeSet<Integer>();
+        for (TrainLine line : origin.getTrainLines()){
+            List<Station> stops = line.getStations();
+            Timetable timetable = line.getTimetable();
+            for (int stop = 0; stop < stops.size() - 1 && stop < timetable.getStopCount(); stop++){
+                if (stops.get(stop) != origin){ continue; }
+                for (int minutes : timetable.getDepartures(stop)){ departures.add(minutes); }
+            }
+        }
+        Map<Station, Set<List<Leg>>> found = new HashMap<Station, Set<List<Leg>>>();
+        for (int minutes : departures){
+            Rounds rounds = search(origin, minutes, null);
+            for (int s = 0; s < stationList.length; s++){
+                for (int k = 1; k < rounds.legs.length; k++){
+                    if (rounds.legs[k][s] == null){ continue; }
+                    found.computeIfAbsent(stationList[s], d -> new LinkedHashSet<List<Leg>>()).add(rounds.journey(origin, k, s));
+                }
+            }
+        }
+        Map<Station, List<List<Leg>>> result = new HashMap<Station, List<List<Leg>>>();
+        for (Map.Entry<Station, Set<List<Leg>>> entry : found.entrySet()){
+            List<List<Leg>> list = new ArrayList<List<Leg>>(entry.getValue());
+            list.sort(Comparator.comparingInt(List::size));   // fewest lines first
+            result.put(entry.getKey(), list);
+        }
+        return result;
+    }
+
+    /**
+     * Round based search from an origin, leaving at a time in minutes, skipping services
+     * blocked by the scenario (if not null).
+     * Round k rides one more line from each station whose arrival improved in round k-1,
+     * so arrival[k] is the earliest arrival at each station using at most k lines.
+     */
+    private Rounds search(Station origin, int minutes, Scenario scenario){
+        int n = stationList.length;
+        List<int[]> arrival = new ArrayList<int[]>();
+        List<Leg[]> legs = new ArrayList<Leg[]>();
+        int[] start = new int[n];
+        Arrays.fill(start, NONE);
+        start[stationNums.get(origin)] = minutes;
+        arrival.add(start);
+        legs.add(new Leg[n]);
+        Set<Station> marked = Collections.singleton(origin);
+        for (int k = 1; k <= MAX_LEGS && !marked.isEmpty(); k++){
+            int[] previous = arrival.get(k-1);
+            int[] current = previous.clone();
+            Leg[] improved = new Leg[n];
+            Set<Station> next = new HashSet<Station>();
+            for (Station station : marked){
+                int at = previous[stationNums.get(station)];
+                for (TrainLine line : station.getTrainLines()){
+                    List<Station> stops = line.getStations();
+                    for (int board = 0; board < stops.size(); board++){
+                        if (stops.get(board) != station){ continue; }
+                        for (int alight = board+1; alight < stops.size(); alight++){
+                            Integer dest = stationNums.get(stops.get(alight));
+                            if (dest == null){ continue; }
+                            int arrive = ride(line, board, alight, at, scenario, null, 0);
+                            if (arrive != -1 && arrive < current[dest]){
+                                current[dest] = arrive;
+                                improved[dest] = new Leg(line, board, alight);
+                                next.add(stops.get(alight));
+                            }
+                        }
+                    }
+                }
+            }
+            arrival.add(current);
+            legs.add(improved);
+            marked = next;
+        }
+        return new Rounds(arrival.toArray(new int[0][]), legs.toArray(new Leg[0][]));
+    }
+
+    /**
+     * Rounds
+     * The result of a search: the arrival at each station after each round, and the leg
+     * that improved it in that round (null if it did not improve)
+     */
+    private class Rounds{
+        private int[][] arrival;
+        private Leg[][] legs;
+
+        private Rounds(int[][] arrival, Leg[][] legs){
+            this.arrival = arrival;
+            this.legs = legs;
+        }
+
+        /**
+         * The journey that reached a station in a round, found by following each leg back
+         * to the round in which its boarding station was last improved
+         */
+        private List<Leg> journey(Station origin, int round, int station){
+            LinkedList<Leg> journey = new LinkedList<Leg>();
+            Station at = stationList[station];
+            while (at != origin){
+                int s = stationNums.get(at);
+                while (legs[round][s] == null){ round--; }
+                Leg leg = legs[round][s];
+                journey.addFirst(leg);
+                at = leg.getFrom();
+                round--;
+            }
+            return Collections.unmodifiableList(new ArrayList<Leg>(journey));
+        }
+    }
+
+    //Queries
+    /**
+     * Return the transfer patterns from one station to another
+     *  (empty if there is no way to get there)
+     */
+    public List<List<Leg>> getPatterns(Station from, Station to){
+        if (from == null || to == null){ return Collections.emptyList(); }
+        Map<Station, List<List<Leg>>> fromOrigin = patterns.get(from);
+        if (fromOrigin == null || !fromOrigin.containsKey(to)){ return Collections.emptyList(); }
+        return Collections.unmodifiableList(fromOrigin.get(to));
+    }
+
+    /**
+     * Return the earliest 24-hour time that the destination can be reached, leaving
+     * the origin at or after the given time.  -1 if it cannot be reached that day.
+     */
+    public int earliestArrival(Station from, Station to, int time){
+        return earliestArrival(from, to, time, null);
+    }
+
+    /**
+     * Same as earliestArrival, but skipping services that are blocked in a
+     * disruption scenario (no scenario if null).
+     */
+    public int earliestArrival(Station from, Station to, int time, Scenario scenario){
+        int best = -1;
+        for (List<Leg> pattern : getPatterns(from, to)){
+            int arrival = arrivalMinutes(pattern, Timetable.toMinutes(time), scenario);
+            if (arrival != -1 && (best == -1 || arrival < best)){ best = arrival; }
+        }
+        return best == -1 ? -1 : Timetable.toClockTime(best);
+    }
+
+    /**
+     * Return the 24-hour arrival time of the earliest journey that follows a pattern,
+     * leaving at or after the given time.  -1 if there is no such journey.
+     */
+    public static int arrivalTime(List<Leg> pattern, int time){
+        int arrival = arrivalMinutes(pattern, Timetable.toMinutes(time), null);
+        return arrival == -1 ? -1 : Timetable.toClockTime(arrival);
+    }
+
+    /**
+     * Find the earliest journey that follows a pattern, leaving at or after the given
+     * time in minutes (as returned by Timetable.getMinutes), skipping services blocked
+     * by the scenario (if not null).  If services is not null, the index of the
+     * service taken on each leg is put in it.
+     * Returns the arrival time in minutes, or -1 if there is no such journey.
+     */
+    public static int followPattern(List<Leg> pattern, int minutes, Scenario scenario, int[] services){
+        return arrivalMinutes(pattern, minutes, scenario, services);
+    }
+
+    /**
+     * Scan the timetable of each leg in turn for the first service that stops at
+     * both ends of the leg (and is not blocked by the scenario, if there is one).
+     * Times are in minutes so that journeys can run past midnight.
+     */
+    private static int arrivalMinutes(List<Leg> pattern, int minutes, Scenario scenario){
+        return arrivalMinutes(pattern, minutes, scenario, null);
+    }
+
+    private static int arrivalMinutes(List<Leg> pattern, int minutes, Scenario scenario, int[] services){
+        for (int l = 0; l < pattern.size(); l++){
+            Leg leg = pattern.get(l);
+            minutes = ride(leg.getLine(), leg.getBoardStop(), leg.getAlightStop(), minutes, scenario, services, l);
+            if (minutes == -1){ return -1; }
+        }
+        return minutes;
+    }
+
+    /**
+     * Scan the timetable of a line for the first service that leaves the board stop at or
+     * after the given minutes and stops at the alight stop (and is not blocked by the
+     * scenario, if there is one). Returns the arrival in minutes, or -1 if there is none.
+     * If services is not null, the index of the service is put in services[leg].
+     */
+    private static int ride(TrainLine line, int boardStop, int alightStop, int minutes, Scenario scenario, int[] services, int leg){
+        Timetable timetable = line.getTimetable();
+        if (alightStop >= timetable.getStopCount()){ return -1; }
+        int service = timetable.firstDeparture(boardStop, minutes);
+        if (service == -1){ return -1; }
+        for (; service < timetable.size(); service++){
+            int depart = timetable.getMinutes(service, boardStop);
+            if (depart == -1 || depart < minutes){ continue; }
+            if (scenario != null && scenario.isBlocked(line, service, boardStop, alightStop)){ continue; }
+            int arrival = timetable.getMinutes(service, alightStop);
+            if (arrival != -1){
+                if (services != null){ services[leg] = service; }
+                return arrival;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the earliest 24-hour time the destination can be reached, leaving the origin at
+     * or after the given time, by a full search of the timetables rather than the patterns,
+     * skipping services blocked in the scenario (if not null).  -1 if it cannot be reached that day.
+     * Slower than earliestArrival, but finds journeys that no pattern covers (eg around a closure).
+     */
+    public int searchArrival(Station from, Station to, int time, Scenario scenario){
+        if (!stationNums.containsKey(from) || !stationNums.containsKey(to)){ return -1; }
+        Rounds rounds = search(from, Timetable.toMinutes(time), scenario);
+        int arrival = rounds.arrival[rounds.arrival.length-1][stationNums.get(to)];
+        return arrival == NONE || from == to ? -1 : Timetable.toClockTime(arrival);
+    }
+
+    /**
+     * Return the pairs of stations (from, to) that have a pattern using the given line.
+     * The index from lines to pairs is built on first use.
+     */
+    public List<List<Station>> getPairsUsing(TrainLine line){
+        synchronized (this){
+            if (pairsByLine == null){
+                pairsByLine = new HashMap<TrainLine, List<List<Station>>>();
+                for (Map.Entry<Station, Map<Station, List<List<Leg>>>> fromOrigin : patterns.entrySet()){
+                    for (Map.Entry<Station, List<List<Leg>>> entry : fromOrigin.getValue().entrySet()){
+                        List<Station> pair = Arrays.asList(fromOrigin.getKey(), entry.getKey());
+                        Set<TrainLine> lines = new HashSet<TrainLine>();
+                        for (List<Leg> pattern : entry.getValue()){
+                            for (Leg leg : pattern){ lines.add(leg.getLine()); }
+                        }
+                        for (TrainLine used : lines){
+                            pairsByLine.computeIfAbsent(used, l -> new ArrayList<List<Station>>()).add(pair);
+                        }
+                    }
+                }
+            }
+        }
+        List<List<Station>> pairs = pairsByLine.get(line);
+        return pairs == null ? Collections.<List<Station>>emptyList() : Collections.unmodifiableList(pairs);
+    }
+
+    //Persistence
+    /**
+     * Save the patterns to a file, with the checksum of the network.
+     * Stations and lines are written once by name, and legs refer to them by number.
+     */
+    public void save(File file) throws IOException{
+        List<Station> stationList = new ArrayList<Station>(patterns.keySet());
+        Map<Station, Integer> stationNums = new HashMap<Station, Integer>();
+        Map<TrainLine, Integer> lineNums = new LinkedHashMap<TrainLine, Integer>();
+        for (Station station : stationList){
+            stationNums.put(station, stationNums.size());
+            for (TrainLine line : station.getTrainLines()){
+                lineNums.putIfAbsent(line, lineNums.size());
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))){
+            out.writeInt(MAGIC);
+            out.writeLong(checksum(stationList));
+            out.writeInt(stationList.size());
+            for (Station station : stationList){ out.writeUTF(station.getName()); }
+            out.writeInt(lineNums.size());
+            for (TrainLine line : lineNums.keySet()){ out.writeUTF(line.getName()); }
+            for (Station from : stationList){
+                Map<Station, List<List<Leg>>> fromOrigin = patterns.get(from);
+                out.writeInt(fromOrigin.size());
+                for (Map.Entry<Station, List<List<Leg>>> entry : fromOrigin.entrySet()){
+                    out.writeShort(stationNums.get(entry.getKey()));
+                    out.writeShort(entry.getValue().size());
+                    for (List<Leg> pattern : entry.getValue()){
+                        out.writeByte(pattern.size());
+                        for (Leg leg : pattern){
+                            out.writeShort(lineNums.get(leg.getLine()));
+                            out.writeShort(leg.getBoardStop());
+                            out.writeShort(leg.getAlightStop());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Load patterns saved by save(), looking up the stations and lines by name.
+     * Throws an IOException if they were saved for a different network.
+     */
+    public static TransferPatterns load(File file, Map<String, Station> stations, Map<String, TrainLine> lines) throws IOException{
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))){
+            if (in.readInt() != MAGIC){ throw new IOException("Not a transfer patterns file: "+file); }
+            if (in.readLong() != checksum(stations.values())){
+                throw new IOException(file+" was saved for a different network");
+            }
+            Station[] stationList = new Station[in.readInt()];
+            for (int i = 0; i < stationList.length; i++){
+                stationList[i] = lookup(stations, in.readUTF(), file);
+            }
+            TrainLine[] lineList = new TrainLine[in.readInt()];
+            for (int i = 0; i < lineList.length; i++){
+                lineList[i] = lookup(lines, in.readUTF(), file);
+            }
+            Map<Station, Map<Station, List<List<Leg>>>> patterns = new HashMap<Station, Map<Station, List<List<Leg>>>>();
+            for (Station from : stationList){
+                Map<Station, List<List<Leg>>> fromOrigin = new HashMap<Station, List<List<Leg>>>();
+                int destCount = in.readInt();
+                for (int d = 0; d < destCount; d++){
+                    Station to = stationList[in.readShort()];
+                    List<List<Leg>> found = new ArrayList<List<Leg>>();
+                    int patternCount = in.readShort();
+                    for (int p = 0; p < patternCount; p++){
+                        List<Leg> pattern = new ArrayList<Leg>();
+                        int legCount = in.readByte();
+                        for (int l = 0; l < legCount; l++){
+                            pattern.add(new Leg(lineList[in.readShort()], in.readShort(), in.readShort()));
+                        }
+                        found.add(Collections.unmodifiableList(pattern));
+                    }
+                    fromOrigin.put(to, found);
+                }
+                patterns.put(from, fromOrigin);
+            }
+            return new TransferPatterns(stations.values(), patterns);
+        }
+    }
+
+    private static <T> T lookup(Map<String, T> map, String name, File file) throws IOException{
+        T value = map.get(name);
+        if (value == null){ throw new IOException("Unknown name "+name+" in "+file); }
+        return value;
+    }
+
+    /**
+     * Checksum of the stations, the lines through them and all the service times,
+     * taken in name order so it doesn't depend on the order of the collections
+     */
+    private static long checksum(Collection<Station> stations){
+        CRC32 crc = new CRC32();
+        SortedMap<String, TrainLine> lines = new TreeMap<String, TrainLine>();
+        SortedSet<String> names = new TreeSet<String>();
+        for (Station station : stations){
+            names.add(station.getName());
+            for (TrainLine line : station.getTrainLines()){ lines.put(line.getName(), line); }
+        }
+        for (String name : names){ crc.update((name+"\n").getBytes()); }
+        for (TrainLine line : lines.values()){
+            StringBuilder sb = new StringBuilder(line.getName()).append(line.getStations());
+            for (TrainService service : line.getTrainServices()){ sb.append(service.getTimes()); }
+            crc.update(sb.toString().getBytes());
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * main method computes the patterns for the data files in a directory and saves them,
+     * so the program can load them rather than compute them when it starts
+     *
+     * @param args data directory (default the current directory), patterns file
+     */
+    public static void main(String[] args) throws IOException{
+        File directory = new File(args.length > 0 ? args[0] : ".");
+        File file = args.length > 1 ? new File(args[1]) : new File(directory, FILE_NAME);
+        TrainNetwork network = TrainNetwork.load(directory, false);
+        long start = System.nanoTime();
+        TransferPatterns result = compute(network.getStations().values());
+        result.save(file);
+        int count = 0;
+        for (Map<Station, List<List<Leg>>> fromOrigin : result.patterns.values()){
+            for (List<List<Leg>> found : fromOrigin.values()){ count += found.size(); }
+        }
+        System.out.printf("%d patterns for %s computed in %.1f s, saved to %s%n",
+            count, network, (System.nanoTime() - start) / 1e9, file);
+    }
+
+    /**
+     * Leg
+     * One part of a journey: ride a train line from the station at one stop
+     * to the station at a later stop.
+     */
+    public static class Leg{
+        private TrainLine line;
+        private int boardStop;
+        private int alightStop;
+
+        public Leg(TrainLine line, int boardStop, int alightStop){
+            this.line = line;
+            this.boardStop = boardStop;
+            this.alightStop = alightStop;
+        }
+
+        public TrainLine getLine(){
+            return line;
+        }
+
+        public int getBoardStop(){
+            return boardStop;
+        }
+
+        public int getAlightStop(){
+            return alightStop;
+        }
+
+        public Station getFrom(){
+            return line.getStations().get(boardStop);
+        }
+
+        public Station getTo(){
+            return line.getStations().get(alightStop);
+        }
+
+        public boolean equals(Object other){
+            if (!(other instanceof Leg)){ return false; }
+            Leg leg = (Leg)other;
+            return leg.line == line && leg.boardStop == boardStop && leg.alightStop == alightStop;
+        }
+
+        public int hashCode(){
+            return Objects.hash(line.getName(), boardStop, alightStop);
+        }
+
+        /**
+         * Line name plus the stations to get on and off
+         */
+        public String toString(){
+            return line.getName()+" ("+getFrom().getName()+" to "+getTo().getName()+")";
+        }
+    }
+
+}
@@ -2,8 +2,12 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.reflect.Array;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,10 +34,19 @@ import ecs100.UIFileChooser;
  */
 
 public class WellingtonTrains {
+	private static final int BOARD_ROWS = 10;
+	private static final String HOME_REGION = "Wellington"; // the region in regions.data that this program shows
 	private Map<String, Station> stations = new HashMap<String, Station>();
 	private List<TrainService> trainServices = new ArrayList<TrainService>();
 	private Map<String, TrainLine> trainLines = new HashMap<String, TrainLine>();
 	private List<Rectangle> shapes = new ArrayList<>();
+	private TransferPatterns transferPatterns;
+	private QueryLog queryLog;
+	private ChangeJournal journal;
+	private HeadwayReport headwayReport;
+	private DepartureBoard departureBoard;
+	private DepartureBoard.Subscription liveBoard;
+	private RegionRegistry regions;
 	private double x;
 	private double y;
 	private double w;
@@ -47,6 +60,16 @@ public class WellingtonTrains {
 	 * Listener action.
 	 */
 	public WellingtonTrains() {
+		this(false);
+	}
+
+	/**
+	 * Same as WellingtonTrains(), but in strict mode the data files must have no
+	 * problems at all, or nothing is loaded.
+	 * 
+	 * @param strict stop loading at the first problem in the data files
+	 */
+	public WellingtonTrains(boolean strict) {
 		UI.initialise();
 		UI.setMouseListener(this::doMouse);
 		// standard size that fully displays the map image on launch
@@ -54,6 +77,30 @@ public class WellingtonTrains {
 		UI.setDivider(0.37);
 		// calls method to open region map in graphics pane on start
 		loadWellyMap();
+		// load the network from the journal's snapshot, or the first time from the data
+		// files (checking them), so that edits to lines and services are kept
+		try {
+			journal = ChangeJournal.open(new File("."), new File("journal"), strict);
+			Runtime.getRuntime().addShutdownHook(new Thread(this::closeJournal));
+			TrainNetwork network = journal.getNetwork();
+			stations.putAll(network.getStations());
+			trainLines.putAll(network.getTrainLines());
+			trainServices.addAll(network.getTrainServices());
+			UI.println("Train Stations data succesfully loaded!");
+			UI.println("Train Lines data successfully loaded!");
+			// console report of any rows that were left out
+			System.out.println("Data check: " + network.getLoadReport());
+			for (LoadReport.Problem problem : network.getLoadReport().getProblems()) {
+				System.out.println(problem);
+			}
+		} catch (IOException ex) {
+			// fail fast: nothing is built from a network that did not load (or, in strict
+			// mode, had problems), so a saved transfer patterns file is not overwritten
+			ex.printStackTrace();
+			UI.println("Error loading file: " + ex.getMessage());
+			UI.println("Nothing has been loaded; fix the data files and start again.");
+			return;
+		}
 		/*
 		 * Two lines below belong to out-dated method that had users load their own data
 		 */
@@ -68,73 +115,27 @@ public class WellingtonTrains {
 		UI.addButton("Display services on train line", this::listTLService);
 		UI.addButton("Display service times at station", this::findStationSvcs);
 		UI.addButton("Plan route between two stations", this::routePlan);
+		UI.addButton("Plan route to another region", this::regionRoutePlan);
+		UI.addButton("Display service frequency at station", this::frequencyReport);
+		UI.addButton("Show live departures at station", this::liveDepartures);
 		UI.addButton("Show interactive system map", this::loadSystemMap);
 		UI.addButton("Show Wellington Region map", this::loadWellyMap);
 
-		// set up scanner for Station HashMap to load on program start
+		// routes between every pair of stations for routePlan, precomputed and saved
+		transferPatterns = TransferPatterns.loadOrCompute(new File(TransferPatterns.FILE_NAME), stations, trainLines);
+		headwayReport = new HeadwayReport(trainLines.values());
+		// live departure boards, moved on by their own clock
+		departureBoard = new DepartureBoard(BOARD_ROWS, DepartureBoard.currentMinutes());
+		departureBoard.start();
+		// edits made through the journal update the report and the boards for the line changed
+		journal.getNetwork().addChangeListener(headwayReport::refresh);
+		journal.getNetwork().addChangeListener(departureBoard::timetableChanged);
+		// record queries so they can be replayed with QueryReplay
 		try {
-			String fileName = "stations.data";
-			File stationData = new File(fileName);
-			Scanner sc = new Scanner(stationData);
-			while (sc.hasNext()) {
-				String name = sc.next();
-				int zone = sc.nextInt();
-				double distance = sc.nextDouble();
-				sc.nextLine();
-				Station s = new Station(name, zone, distance);
-				stations.put(name, s);
-			}
-			UI.println("Train Stations data succesfully loaded!");
-		} catch (IOException ex) {
-			UI.printf("Error loading file", ex);
-		}
-		// set up scanner for TrainLine HashMap to load on program start
-		try {
-			String fileName = "train-lines.data";
-			File trainLineData = new File(fileName);
-			Scanner sc = new Scanner(trainLineData);
-			while (sc.hasNext()) {
-				String name = sc.nextLine();
-				TrainLine t = new TrainLine(name);
-				trainLines.put(name, t);
-
-				// Scanner for stations data
-				String fN = name + "-stations.data";
-				// console message to confirm files are being loaded
-				System.out.println(fN + " loaded!");
-				File TLStation = new File(fN);
-				Scanner stationScan = new Scanner(TLStation);
-				while (stationScan.hasNext()) {
-					String stationName = stationScan.nextLine();
-					t.addStation(stations.get(stationName));
-					stations.get(stationName).addTrainLine(t);
-				}
-				// test code to confirm in console that items were being loaded
-//				System.out.println(t.getStations());
-//				System.out.println("***");
-//				for (String sts : stations.keySet())
-//				System.out.println(stations.get(sts).getTrainLines());
-				stationScan.close();
-				// set up scanner for Train Service loading
-				String fN2 = name + "-services.data";
-				// console message to confirm files are being loaded
-				System.out.println(fN2 + " loaded!");
-				File stationSvcs = new File(fN2);
-				Scanner svcScan = new Scanner(stationSvcs);
-				while (svcScan.hasNext()) {
-					int time = svcScan.nextInt();
-					TrainService ts = new TrainService(t);
-					trainServices.add(ts);
-					t.addTrainService(ts);
-					ts.addTime(time, true);
-				}
-				// test code confirming in console that items were being loaded
-				// System.out.println(t.getTrainServices());
-			}
-			UI.println("Train Lines data successfully loaded!");
+			queryLog = new QueryLog(new File("queries.log"));
+			Runtime.getRuntime().addShutdownHook(new Thread(this::closeQueryLog));
 		} catch (IOException ex) {
-			ex.printStackTrace();
-			UI.printf("Error loading file", ex);
+			System.out.println("Query log not available: " + ex.getMessage());
 		}
 	}
 
@@ -143,7 +144,7 @@ public class WellingtonTrains {
 	 * stations into the text pane.
 	 */
 	public void printStationData() {
-		UI.clearText();
+		clearText();
 		// using SortedSet to display station names alphabetically
 		SortedSet<String> sortedStations = new TreeSet<String>(stations.keySet());
 		for (String stN : sortedStations) {
@@ -156,7 +157,7 @@ public class WellingtonTrains {
 	 * available in the system.
 	 */
 	public void printLineData() {
-		UI.clearText();
+		clearText();
 		SortedSet<String> sortedLines = new TreeSet<String>(trainLines.keySet());
 		for (String lineName : sortedLines) {
 			UI.println(trainLines.get(lineName).toString());
@@ -169,7 +170,7 @@ public class WellingtonTrains {
 	 * each line available at that station.
 	 */
 	public void tlByStation() {
-		UI.clearText();
+		clearText();
 		SortedSet<String> sortedStations = new TreeSet<String>(stations.keySet());
 		for (String sts : sortedStations) {
 			UI.println(stations.get(sts));
@@ -183,7 +184,7 @@ public class WellingtonTrains {
 	 * stations available on that line.
 	 */
 	public void stationByTL() {
-		UI.clearText();
+		clearText();
 		SortedSet<String> sortedLines = new TreeSet<String>(trainLines.keySet());
 		for (String tls : sortedLines) {
 			UI.println(trainLines.get(tls));
@@ -198,7 +199,7 @@ public class WellingtonTrains {
 	 * station.
 	 */
 	public void searchStation() {
-		UI.clearText();
+		clearText();
 
 // initial code I started with: print list of stations and let user type name in
 //		UI.askString
@@ -216,7 +217,8 @@ public class WellingtonTrains {
 				"Wingate", "Woburn", "Woodside" };
 		Object stationName = JOptionPane.showInputDialog(null, "Select one", "Input", JOptionPane.INFORMATION_MESSAGE,
 				null, stPossibleNames, stPossibleNames[0]);
-		UI.clearText();
+		logQuery(QueryLog.STATION, stationName);
+		clearText();
 		UI.println(stations.get(stationName));
 		UI.println(stations.get(stationName).getTrainLines());
 	}
@@ -226,13 +228,14 @@ public class WellingtonTrains {
 	 * stations available on that line.
 	 */
 	public void searchTL() {
-		UI.clearText();
+		clearText();
 		Object[] tlPossibleNames = { "Johnsonville_Wellington", "Masterton_Wellington", "Melling_Wellington",
 				"Upper-Hutt_Wellington", "Waikanae_Wellington", "Wellington_Johnsonville", "Wellington_Masterton",
 				"Wellington_Melling", "Wellington_Upper-Hutt", "Wellington_Waikanae" };
 		Object tlName = JOptionPane.showInputDialog(null, "Select one", "Input", JOptionPane.INFORMATION_MESSAGE, null,
 				tlPossibleNames, tlPossibleNames[0]);
-		UI.clearText();
+		logQuery(QueryLog.LINE, tlName);
+		clearText();
 		UI.println(trainLines.get(tlName));
 		UI.println(trainLines.get(tlName).getStations());
 	}
@@ -242,13 +245,14 @@ public class WellingtonTrains {
 	 * displays service times on that line.
 	 */
 	public void listTLService() {
-		UI.clearText();
+		clearText();
 		Object[] tlPossibleNames = { "Johnsonville_Wellington", "Masterton_Wellington", "Melling_Wellington",
 				"Upper-Hutt_Wellington", "Waikanae_Wellington", "Wellington_Johnsonville", "Wellington_Masterton",
 				"Wellington_Melling", "Upper-Hutt_Wellington", "Wellington_Waikanae" };
 		Object tlName = JOptionPane.showInputDialog(null, "Select one", "Input", JOptionPane.INFORMATION_MESSAGE, null,
 				tlPossibleNames, tlPossibleNames[0]);
-		UI.clearText();
+		logQuery(QueryLog.LINE_SERVICES, tlName);
+		clearText();
 		UI.println(trainLines.get(tlName));
 		UI.println(trainLines.get(tlName).getTrainServices().toString());
 	}
@@ -259,7 +263,7 @@ public class WellingtonTrains {
 	 * line, displays the service times.
 	 */
 	public void findStationSvcs() {
-		UI.clearText();
+		clearText();
 		Object[] stPossibleNames = { "Ava", "Awarua-Street", "Box-Hill", "Carterton", "Crofton-Downs", "Epuni",
 				"Featherston", "Heretaunga", "Johnsonville", "Kenepuru", "Khandallah", "Linden", "Mana", "Manor-Park",
 				"Masterton", "Matarawa", "Maymorn", "Melling", "Naenae", "Ngaio", "Ngauranga", "Paekakariki",
@@ -269,6 +273,7 @@ public class WellingtonTrains {
 				"Wingate", "Woburn", "Woodside" };
 		Object stationName = JOptionPane.showInputDialog(null, "Select one", "Input", JOptionPane.INFORMATION_MESSAGE,
 				null, stPossibleNames, stPossibleNames[0]);
+		logQuery(QueryLog.STATION_SERVICES, stationName);
 		if (stationName.equals("Ava")) {
 			UI.println(stationName + " has the following train lines and service times:");
 			UI.println(trainLines.get("Wellington_Upper-Hutt").getTrainServices());
@@ -480,11 +485,12 @@ public class WellingtonTrains {
 	}
 
 	/**
-	 * routePlan method allows the user to select two stations, and determine if
-	 * there are train lines that connect those two stations.
+	 * routePlan method allows the user to select two stations, and lists the train
+	 * lines (and changes between them) that connect those two stations, with the
+	 * arrival time of the next journey on each.
 	 */
 	public void routePlan() {
-		UI.clearText();
+		clearText();
 		Object[] stPossibleNames = { "Ava", "Awarua-Street", "Box-Hill", "Carterton", "Crofton-Downs", "Epuni",
 				"Featherston", "Heretaunga", "Johnsonville", "Kenepuru", "Khandallah", "Linden", "Mana", "Manor-Park",
 				"Masterton", "Matarawa", "Maymorn", "Melling", "Naenae", "Ngaio", "Ngauranga", "Paekakariki",
@@ -496,20 +502,187 @@ public class WellingtonTrains {
 				null, stPossibleNames, stPossibleNames[0]);
 		Object station2 = JOptionPane.showInputDialog(null, "Select one", "Input", JOptionPane.INFORMATION_MESSAGE,
 				null, stPossibleNames, stPossibleNames[0]);
-		UI.clearText();
-		if (stations.get(station1).getTrainLines().equals(stations.get(station2).getTrainLines())) {
-			for (TrainLine t : stations.get(station1).getTrainLines()) {
-				List<Station> stAtTL1 = new ArrayList(t.getStations());
-
-				UI.println("Stations visited by " + t.getName() + " : " + stAtTL1);
+		clearText();
+		Station from = stations.get(station1);
+		Station to = stations.get(station2);
+		LocalTime now = LocalTime.now();
+		int time = now.getHour() * 100 + now.getMinute();
+		// logged before looking for routes, so queries that find none are replayed too
+		if (queryLog != null && from != null && to != null) {
+			try {
+				queryLog.recordRoute(from.getName(), to.getName(), time);
+			} catch (IOException ex) {
+				System.out.println("Query not logged: " + ex.getMessage());
 			}
-// 	commenting out code that didn't work for me
-//			for (TrainLine t : stations.get(station2).getTrainLines()) {
-//				List <Station> stAtTL2 = new ArrayList (t.getStations());
-//				UI.println("Stations visited by " + t.getName() + " : "+ stAtTL2);
-//			}
-		} else
+		}
+		// routes come from the precomputed transfer patterns, so only their timetables are scanned
+		List<List<TransferPatterns.Leg>> patterns = transferPatterns.getPatterns(from, to);
+		if (patterns.isEmpty()) {
 			UI.println("Unable to travel between selected stations without a train connection!");
+			return;
+		}
+		UI.println("Routes from " + from.getName() + " to " + to.getName() + ":");
+		for (List<TransferPatterns.Leg> pattern : patterns) {
+			UI.println(pattern);
+			int arrival = TransferPatterns.arrivalTime(pattern, time);
+			if (arrival == -1) {
+				UI.println("  no more services today");
+			} else {
+				UI.println("  leaving now, arrive at " + arrival);
+			}
+		}
+	}
+
+	/**
+	 * regionRoutePlan allows the user to select a station in this region, then
+	 * another region and a station in it, and shows when the next journey between
+	 * them arrives. The regions and the links between them are read from
+	 * regions.data the first time; a region is only loaded when it is chosen.
+	 */
+	public void regionRoutePlan() {
+		clearText();
+		if (regions == null) {
+			try {
+				regions = RegionRegistry.load(new File("regions.data"));
+			} catch (IOException ex) {
+				UI.println("Regions not available: " + ex.getMessage());
+				return;
+			}
+			// this region is already loaded, with its journal open
+			regions.addRegion(new RegionRegistry.Region(HOME_REGION, journal, transferPatterns));
+		}
+		Object[] stPossibleNames = new TreeSet<String>(stations.keySet()).toArray();
+		Object fromName = JOptionPane.showInputDialog(null, "Select one", "Input", JOptionPane.INFORMATION_MESSAGE,
+				null, stPossibleNames, stPossibleNames[0]);
+		if (fromName == null) {
+			return;
+		}
+		Object[] regionNames = new TreeSet<String>(regions.getRegionNames()).toArray();
+		Object regionName = JOptionPane.showInputDialog(null, "Select a region", "Input",
+				JOptionPane.INFORMATION_MESSAGE, null, regionNames, regionNames[0]);
+		if (regionName == null) {
+			return;
+		}
+		try {
+			Map<String, Station> regionStations = regions.getRegion(regionName.toString()).getNetwork().getStations();
+			Object[] toNames = new TreeSet<String>(regionStations.keySet()).toArray();
+			Object toName = JOptionPane.showInputDialog(null, "Select one", "Input", JOptionPane.INFORMATION_MESSAGE,
+					null, toNames, toNames[0]);
+			if (toName == null) {
+				return;
+			}
+			LocalTime now = LocalTime.now();
+			int time = now.getHour() * 100 + now.getMinute();
+			int arrival = regions.earliestArrival(HOME_REGION, fromName.toString(), regionName.toString(),
+					toName.toString(), time);
+			UI.println("From " + fromName + " (" + HOME_REGION + ") to " + toName + " (" + regionName + "):");
+			UI.println(arrival == -1 ? "  no more journeys today" : "  leaving now, arrive at " + arrival);
+		} catch (UncheckedIOException ex) {
+			UI.println(ex.getMessage() + ": " + ex.getCause().getMessage());
+		}
+	}
+
+	/**
+	 * frequencyReport allows the user to select a station from a drop down list,
+	 * then displays how often trains leave it on each line, hour by hour, with the
+	 * first and last trains.
+	 */
+	public void frequencyReport() {
+		clearText();
+		Object[] stPossibleNames = new TreeSet<String>(stations.keySet()).toArray();
+		Object stationName = JOptionPane.showInputDialog(null, "Select one", "Input", JOptionPane.INFORMATION_MESSAGE,
+				null, stPossibleNames, stPossibleNames[0]);
+		logQuery(QueryLog.FREQUENCY, stationName);
+		if (stationName == null) {
+			return;
+		}
+		UI.println(headwayReport.report(stations.get(stationName)));
+	}
+
+	/**
+	 * liveDepartures allows the user to select a station from a drop down list,
+	 * then shows the next trains to leave it on all its lines. The list is kept up
+	 * to date as trains leave and the timetables change, until another button
+	 * clears the text pane.
+	 */
+	public void liveDepartures() {
+		clearText();
+		Object[] stPossibleNames = new TreeSet<String>(stations.keySet()).toArray();
+		Object stationName = JOptionPane.showInputDialog(null, "Select one", "Input", JOptionPane.INFORMATION_MESSAGE,
+				null, stPossibleNames, stPossibleNames[0]);
+		if (stationName == null) {
+			return;
+		}
+		if (queryLog != null) {
+			try {
+				queryLog.recordDepartures(stationName.toString(), Timetable.toClockTime(departureBoard.getNow()));
+			} catch (IOException ex) {
+				System.out.println("Query not logged: " + ex.getMessage());
+			}
+		}
+		// the rows on show, changed by each update from the board (on its clock thread)
+		List<DepartureBoard.Row> shown = new ArrayList<DepartureBoard.Row>();
+		liveBoard = departureBoard.subscribe(stations.get(stationName), null, (station, line, removed, added) -> {
+			shown.removeAll(removed);
+			shown.addAll(added);
+			shown.sort(Comparator.comparingInt(DepartureBoard.Row::getMinutes));
+			UI.clearText();
+			UI.println("Next departures from " + station.getName() + ":");
+			for (DepartureBoard.Row row : shown) {
+				UI.println("  " + row);
+			}
+		});
+	}
+
+	/**
+	 * clearText stops updating the live departures (if they are on show) and
+	 * clears the text pane.
+	 */
+	private void clearText() {
+		if (liveBoard != null) {
+			liveBoard.cancel();
+			liveBoard = null;
+		}
+		UI.clearText();
+	}
+
+	/**
+	 * logQuery records a station or line query in the query log.
+	 * 
+	 * @param type the kind of query (one of the QueryLog constants)
+	 * @param name the station or line selected, null if the user cancelled
+	 */
+	private void logQuery(int type, Object name) {
+		if (queryLog == null || name == null) {
+			return;
+		}
+		try {
+			queryLog.record(type, name.toString());
+		} catch (IOException ex) {
+			System.out.println("Query not logged: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * closeQueryLog writes any buffered queries to the log file on exit.
+	 */
+	private void closeQueryLog() {
+		try {
+			queryLog.close();
+		} catch (IOException ex) {
+			System.out.println("Query log not closed: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * closeJournal commits any edits to the network that are not yet on disk, on exit.
+	 */
+	private void closeJournal() {
+		try {
+			journal.close();
+		} catch (IOException ex) {
+			System.out.println("Journal not closed: " + ex.getMessage());
+		}
 	}
 
 	/**
@@ -638,10 +811,10 @@ public class WellingtonTrains {
 	/**
 	 * main method tells the program to initialize the WellingtonTrains UI
 	 * 
-	 * @param args standard main construction
+	 * @param args standard main construction; --strict to reject bad data files
 	 */
 	public static void main(String[] args) {
-		new WellingtonTrains();
+		new WellingtonTrains(Arrays.asList(args).contains("--strict"));
 	}
 
 }
@@ -0,0 +1,359 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.lang.reflect.Field;
+
+/**
+ * ChangeJournalTest
+ * Checks that ChangeJournal keeps edits across restarts, including after the program
+ * stops at a bad moment. Each test works on a copy of the data files in a temporary
+ * directory. Run from the project directory (where the data files are):
+ *
+ * Usage: java ChangeJournalTest
+ */
+
+public class ChangeJournalTest{
+    private static final String LINE = "Wellington_Melling";
+    private File dataDirectory;
+    private File journalDirectory;
+
+    /**
+     * Make a fresh copy of the data files, and an empty journal directory
+     */
+    private ChangeJournalTest() throws IOException{
+        Path root = Files.createTempDirectory("journal-test");
+        dataDirectory = root.resolve("data").toFile();
+        journalDirectory = root.resolve("journal").toFile();
+        dataDirectory.mkdirs();
+        File[] files = new File(".").listFiles((dir, name) -> name.endsWith(".data"));
+        for (File file : files){
+            Files.copy(file.toPath(), new File(dataDirectory, file.getName()).toPath());
+        }
+    }
+
+    private ChangeJournal open() throws IOException{
+        return ChangeJournal.open(dataDirectory, journalDirectory, false);
+    }
+
+    private static int serviceCount(ChangeJournal journal){
+        return journal.getNetwork().getTrainLines().get(LINE).getTrainServices().size();
+    }
+
+    /**
+     * A service on the line leaving each stop a minute after the given service
+     */
+    private static int[] minuteAfter(TrainService service){
+        int[] times = new int[service.getTimes().size()];
+        for (int i = 0; i < times.length; i++){
+            int time = service.getTimes().get(i);
+            times[i] = time == -1 ? -1 : Timetable.toClockTime(Timetable.toMinutes(time) + 1);
+        }
+        return times;
+    }
+
+    /**
+     * Add a service a minute after each of the first few services of the line
+     */
+    private static void addServices(ChangeJournal journal, int count){
+        List<TrainService> services = new ArrayList<TrainService>(journal.getNetwork().getTrainLines().get(LINE).getTrainServices());
+        for (int i = 0; i < count; i++){
+            journal.addTrainService(LINE, minuteAfter(services.get(i)));
+        }
+    }
+
+    private static void check(boolean condition, String message){
+        if (!condition){ throw new AssertionError(message); }
+    }
+
+    //Tests
+    /**
+     * Committed edits are there after the journal is closed and opened again
+     */
+    private void testReplay() throws IOException{
+        ChangeJournal journal = open();
+        int before = serviceCount(journal);
+        addServices(journal, 3);
+        journal.addStation(LINE, "Taita");
+        journal.close();
+
+        journal = open();
+        check(serviceCount(journal) == before + 3, "replay: expected "+(before+3)+" services, found "+serviceCount(journal));
+        check(journal.getRecordCount() == 4, "replay: expected 4 records, found "+journal.getRecordCount());
+        check(journal.getNetwork().getVersion() == 4, "replay: expected version 4");
+        List<Station> stations = journal.getNetwork().getTrainLines().get(LINE).getStations();
+        check(stations.get(stations.size()-1).getName().equals("Taita"), "replay: station not added");
+        journal.close();
+    }
+
+    /**
+     * A record that was only partly written is dropped, and the edits before it are kept
+     */
+    private void testDamagedTail() throws IOException{
+        ChangeJournal journal = open();
+        int before = serviceCount(journal);
+        addServices(journal, 2);
+        journal.close();
+
+        File journalFile = new File(journalDirectory, "network.journal");
+        long goodLength = journalFile.length();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(journalFile, true))){
+            out.writeInt(100);   // a record of 100 bytes...
+            out.writeInt(12345);
+            out.write(new byte[10]);   // ...cut off after 10
+        }
+
+        journal = open();
+        check(serviceCount(journal) == before + 2, "damaged tail: expected "+(before+2)+" services, found "+serviceCount(journal));
+        check(journalFile.length() == goodLength, "damaged tail: journal not truncated to the last good record");
+        addServices(journal, 1);
+        journal.close();
+        journal = open();
+        check(serviceCount(journal) == before + 3, "damaged tail: edit after recovery lost");
+        journal.close();
+    }
+
+    /**
+     * If the program stops after a compaction has written the new snapshot but before it
+     * emptied the journal, the edits in the journal are not applied twice
+     */
+    private void testCrashDuringCompaction() throws IOException{
+        ChangeJournal journal = open();
+        int before = serviceCount(journal);
+        addServices(journal, 1);
+        journal.commit();
+        File journalFile = new File(journalDirectory, "network.journal");
+        byte[] records = Files.readAllBytes(journalFile.toPath());
+        journal.compact();
+        journal.close();
+        Files.write(journalFile.toPath(), records);   // as if the journal was never truncated
+
+        journal = open();
+        check(serviceCount(journal) == before + 1, "crash during compaction: expected "+(before+1)+" services, found "+serviceCount(journal));
+        addServices(journal, 1);
+        journal.close();
+        journal = open();
+        check(serviceCount(journal) == before + 2, "crash during compaction: later edit lost");
+        journal.close();
+    }
+
+    /**
+     * The network is loaded from the data files again when they change
+     */
+    private void testDataFilesChanged() throws IOException{
+        ChangeJournal journal = open();
+        addServices(journal, 1);
+        journal.close();
+
+        Path services = new File(dataDirectory, LINE+"-services.data").toPath();
+        Files.write(services, Files.readAllLines(services).subList(0, 1));
+        journal = open();
+        check(serviceCount(journal) == 1, "data files changed: expected 1 service, found "+serviceCount(journal));
+        check(new File(journalDirectory, "network.snapshot.old").exists(), "data files changed: old snapshot not kept");
+        journal.close();
+    }
+
+    /**
+     * A service added earlier than the others goes first, so the line stays in time order
+     */
+    private void testServiceOrder() throws IOException{
+        ChangeJournal journal = open();
+        TrainLine line = journal.getNetwork().getTrainLines().get(LINE);
+        int[] times = minuteAfter(line.getTrainServices().get(0));
+        for (int i = 0; i < times.length; i++){
+            if (times[i] != -1){ times[i] = Timetable.toClockTime(Timetable.toMinutes(times[i]) - 30); }
+        }
+        journal.addTrainService(LINE, times);
+        Timetable timetable = line.getTimetable();
+        check(timetable.getTime(0, 0) == times[0], "service order: early service not first");
+        for (int stop = 0; stop < timetable.getStopCount(); stop++){
+            check(timetable.isInOrder(stop), "service order: stop "+stop+" out of order");
+        }
+        check(timetable.nextDeparture(0, 0) == 0, "service order: next departure is not the early service");
+        journal.close();
+    }
+
+    /**
+     * Strict mode still rejects bad data files when starting from a snapshot
+     */
+    private void testStrictFromSnapshot() throws IOException{
+        Path services = new File(dataDirectory, LINE+"-services.data").toPath();
+        List<String> rows = new ArrayList<String>(Files.readAllLines(services));
+        rows.add("bad row");
+        Files.write(services, rows);
+        open().close();   // not strict: writes a snapshot with one problem
+        try {
+            ChangeJournal.open(dataDirectory, journalDirectory, true);
+            check(false, "strict from snapshot: bad data accepted");
+        }
+        catch (IOException ex){
+            check(ex.getMessage().startsWith("Invalid data"), "strict from snapshot: unexpected "+ex.getMessage());
+        }
+    }
+
+    /**
+     * A station added to a line gives every service on the line a -1 time for it, so a
+     * service copied from one of them is accepted; a station already on the line is rejected
+     */
+    private void testAddStation() throws IOException{
+        ChangeJournal journal = open();
+        TrainLine line = journal.getNetwork().getTrainLines().get(LINE);
+        journal.addStation(LINE, "Taita");
+        for (TrainService service : line.getTrainServices()){
+            check(service.getTimes().size() == line.getStations().size(), "add station: "+service+" has "+service.getTimes().size()+" times");
+            check(service.getTimes().get(line.getStations().size()-1) == -1, "add station: "+service+" stops at the new station");
+        }
+        journal.addTrainService(LINE, minuteAfter(line.getTrainServices().get(5)));
+        try {
+            journal.addStation(LINE, "Petone");
+            check(false, "add station: a station already on the line was added again");
+        }
+        catch (IllegalArgumentException ex){
+            check(ex.getMessage().contains("already on"), "add station: unexpected "+ex.getMessage());
+        }
+        journal.close();
+
+        journal = open();
+        line = journal.getNetwork().getTrainLines().get(LINE);
+        check(line.getStations().size() == 6 && line.getStations().indexOf(journal.getNetwork().getStations().get("Petone")) == 2,
+            "add station: stations not kept, found "+line.getStations());
+        check(journal.getRecordCount() == 2, "add station: expected 2 records, found "+journal.getRecordCount());
+        journal.close();
+    }
+
+    /**
+     * Listeners on the network are told about edits made through the journal, so a
+     * HeadwayReport registered as one counts a new service, and a DepartureBoard sends
+     * the new departure to its subscribers
+     */
+    private void testListeners() throws Exception{
+        ChangeJournal journal = open();
+        TrainLine line = journal.getNetwork().getTrainLines().get(LINE);
+        Station first = line.getStations().get(0);
+        HeadwayReport report = new HeadwayReport(journal.getNetwork().getTrainLines().values());
+        List<TrainLine> changed = new ArrayList<TrainLine>();
+        journal.getNetwork().addChangeListener(changed::add);
+        journal.getNetwork().addChangeListener(report::refresh);
+
+        int[] times = minuteAfter(line.getTrainServices().get(0));
+        int hour = Timetable.toMinutes(times[0]) / 60;
+        int before = report.getDepartures(first, line, hour);
+        DepartureBoard board = new DepartureBoard(3, Timetable.toMinutes(times[0]) - 1);
+        journal.getNetwork().addChangeListener(board::timetableChanged);
+        List<DepartureBoard.Row> added = new ArrayList<DepartureBoard.Row>();
+        // the board's listeners are called holding neither the board's lock nor the journal's
+        Field field = ChangeJournal.class.getDeclaredField("bufferLock");
+        field.setAccessible(true);
+        Object bufferLock = field.get(journal);
+        boolean[] locked = new boolean[1];
+        board.subscribe(first, line, (station, filter, removedRows, addedRows) -> {
+            added.addAll(addedRows);
+            locked[0] |= Thread.holdsLock(board) || Thread.holdsLock(bufferLock);
+        });
+        added.clear();   // the first update is the whole board
+
+        journal.addTrainService(LINE, times);
+        check(changed.equals(Collections.singletonList(line)), "listeners: expected one change to "+LINE+", found "+changed);
+        check(report.getDepartures(first, line, hour) == before + 1, "listeners: headway report not refreshed");
+        check(added.size() == 1 && added.get(0).getTime() == times[0], "listeners: departure board not updated, added "+added);
+        check(!locked[0], "listeners: departure board listener called holding a lock");
+        journal.close();
+    }
+
+    /**
+     * A commit whose write fails keeps its edits buffered, and the next commit writes
+     * them, so no edit is lost and the journal has no gap in its versions
+     */
+    private void testFailedCommit() throws Exception{
+        ChangeJournal journal = open();
+        int before = serviceCount(journal);
+        addServices(journal, 2);
+        journal.commit();
+
+        Field field = ChangeJournal.class.getDeclaredField("channel");
+        field.setAccessible(true);
+        FailingChannel failing = new FailingChannel((FileChannel)field.get(journal));
+        field.set(journal, failing);
+        journal.addTrainService(LINE, minuteAfter(journal.getNetwork().getTrainLines().get(LINE).getTrainServices().get(4)));
+        try {
+            journal.commit();
+            check(false, "failed commit: the write error was not reported");
+        }
+        catch (IOException ex){
+            check(ex.getMessage().equals("disk full"), "failed commit: unexpected "+ex.getMessage());
+        }
+        addServices(journal, 1);
+        journal.commit();   // the write works this time
+        journal.close();
+
+        journal = open();
+        check(serviceCount(journal) == before + 4, "failed commit: expected "+(before+4)+" services, found "+serviceCount(journal));
+        check(journal.getRecordCount() == 4, "failed commit: expected 4 records, found "+journal.getRecordCount());
+        journal.close();
+    }
+
+    /**
+     * FailingChannel
+     * A journal file whose first write stops half way with an IOException
+     */
+    private static class FailingChannel extends FileChannel{
+        private FileChannel file;
+        private boolean failed;
+
+        private FailingChannel(FileChannel file){
+            this.file = file;
+        }
+
+        public int write(ByteBuffer src, long position) throws IOException{
+            if (!failed){
+                failed = true;
+                ByteBuffer half = src.duplicate();
+                half.limit(src.position() + src.remaining()/2);
+                file.write(half, position);
+                throw new IOException("disk full");
+            }
+            return file.write(src, position);
+        }
+
+        public int read(ByteBuffer dst) throws IOException{ return file.read(dst); }
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException{ return file.read(dsts, offset, length); }
+        public int write(ByteBuffer src) throws IOException{ return file.write(src); }
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException{ return file.write(srcs, offset, length); }
+        public long position() throws IOException{ return file.position(); }
+        public FileChannel position(long newPosition) throws IOException{ file.position(newPosition); return this; }
+        public long size() throws IOException{ return file.size(); }
+        public FileChannel truncate(long size) throws IOException{ file.truncate(size); return this; }
+        public void force(boolean metaData) throws IOException{ file.force(metaData); }
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException{ return file.transferTo(position, count, target); }
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException{ return file.transferFrom(src, position, count); }
+        public int read(ByteBuffer dst, long position) throws IOException{ return file.read(dst, position); }
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException{ return file.map(mode, position, size); }
+        public FileLock lock(long position, long size, boolean shared) throws IOException{ return file.lock(position, size, shared); }
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException{ return file.tryLock(position, size, shared); }
+        protected void implCloseChannel() throws IOException{ file.close(); }
+    }
+
+    /**
+     * main method runs each test on its own copy of the data files
+     */
+    public static void main(String[] args) throws Exception{
+        new ChangeJournalTest().testReplay();
+        new ChangeJournalTest().testDamagedTail();
+        new ChangeJournalTest().testCrashDuringCompaction();
+        new ChangeJournalTest().testDataFilesChanged();
+        new ChangeJournalTest().testServiceOrder();
+        new ChangeJournalTest().testStrictFromSnapshot();
+        new ChangeJournalTest().testAddStation();
+        new ChangeJournalTest().testListeners();
+        new ChangeJournalTest().testFailedCommit();
+        System.out.println("ChangeJournalTest: all tests passed");
+    }
+
+}
@@ -0,0 +1,94 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * QueryLogTest
+ * Checks that a query log can still be read, and written to, after the program stopped
+ * part way through writing an entry. Each test works on a log in a temporary directory.
+ *
+ * Usage: java QueryLogTest
+ */
+
+public class QueryLogTest{
+    private File file;
+
+    private QueryLogTest() throws IOException{
+        file = Files.createTempDirectory("query-log-test").resolve("queries.log").toFile();
+    }
+
+    private static void check(boolean condition, String message){
+        if (!condition){ throw new AssertionError(message); }
+    }
+
+    /**
+     * Write one of each kind of query
+     */
+    private void writeQueries() throws IOException{
+        try (QueryLog log = new QueryLog(file)){
+            log.record(QueryLog.STATION, "Petone");
+            log.recordRoute("Wellington", "Johnsonville", 815);
+            log.record(QueryLog.FREQUENCY, "Melling");
+            log.recordDepartures("Waterloo", 1730);
+        }
+    }
+
+    //Tests
+    /**
+     * Every kind of query is read back as it was written
+     */
+    private void testReadBack() throws IOException{
+        writeQueries();
+        List<QueryLog.Entry> entries = QueryLog.read(file);
+        check(entries.size() == 4, "read back: expected 4 entries, found "+entries.size());
+        check(entries.get(1).getName2().equals("Johnsonville") && entries.get(1).getTime() == 815, "read back: route "+entries.get(1));
+        check(entries.get(2).getType() == QueryLog.FREQUENCY && entries.get(2).getName().equals("Melling"), "read back: frequency "+entries.get(2));
+        check(entries.get(3).getType() == QueryLog.DEPARTURES && entries.get(3).getTime() == 1730, "read back: departures "+entries.get(3));
+    }
+
+    /**
+     * A torn last entry is left out, and the entries before it are kept, wherever the tear is
+     */
+    private void testTornEntry() throws IOException{
+        writeQueries();
+        byte[] whole = Files.readAllBytes(file.toPath());
+        int lastEntry = 1 + 1 + 2 + "Waterloo".length() + 2;   // type, time since the previous entry, name, time
+        for (int cut = 1; cut < lastEntry; cut++){
+            Files.write(file.toPath(), Arrays.copyOf(whole, whole.length - cut));
+            List<QueryLog.Entry> entries = QueryLog.read(file);
+            check(entries.size() == 3, "torn entry: "+cut+" bytes cut, expected 3 entries, found "+entries.size());
+        }
+    }
+
+    /**
+     * A new session is written over a torn entry, so the queries after it can be read
+     */
+    private void testAppendAfterTear() throws IOException{
+        writeQueries();
+        byte[] whole = Files.readAllBytes(file.toPath());
+        Files.write(file.toPath(), Arrays.copyOf(whole, whole.length - 3));
+        try (QueryLog log = new QueryLog(file)){
+            log.record(QueryLog.LINE, "Wellington_Melling");
+        }
+        List<QueryLog.Entry> entries = QueryLog.read(file);
+        check(entries.size() == 4, "append: expected 4 entries, found "+entries.size());
+        check(entries.get(3).getName().equals("Wellington_Melling"), "append: last entry "+entries.get(3));
+    }
+
+    /**
+     * main method runs each test on its own log
+     */
+    public static void main(String[] args) throws Exception{
+        new QueryLogTest().testReadBack();
+        new QueryLogTest().testTornEntry();
+        new QueryLogTest().testAppendAfterTear();
+        System.out.println("QueryLogTest: all tests passed");
+    }
+
+}
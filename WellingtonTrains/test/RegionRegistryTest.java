@@ -0,0 +1,145 @@
+// This program is copyright VUW.
+// You are granted permission to use it to construct your answer to a SWEN502 assignment.
+// You may not distribute it in any other way without permission.
+
+// Code for SWEN502, Assignment W2
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RegionRegistryTest
+ * Checks the regions in regions.data: Wellington, and the small Manawatu stand-in region
+ * linked to it at Waikanae. Each test works on a copy of the data files in a temporary
+ * directory. Run from the project directory (where regions.data is):
+ *
+ * Usage: java RegionRegistryTest
+ */
+
+public class RegionRegistryTest{
+    private static final String HOME = "Wellington";
+    private static final String OTHER = "Manawatu";
+    private File regionsFile;
+
+    /**
+     * Make a fresh copy of regions.data and the data files of every region
+     */
+    private RegionRegistryTest() throws IOException{
+        Path root = Files.createTempDirectory("region-test");
+        Path project = Paths.get(".");
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(project, "*.data")){
+            for (Path file : files){ Files.copy(file, root.resolve(file.getFileName())); }
+        }
+        Path regions = project.resolve("regions");
+        try (java.util.stream.Stream<Path> paths = Files.walk(regions)){
+            for (Path path : (Iterable<Path>)paths::iterator){
+                if (!Files.isDirectory(path) && !path.toString().endsWith(".data")){ continue; }
+                Path copy = root.resolve(project.relativize(path).toString());
+                if (Files.isDirectory(path)){ Files.createDirectories(copy); }
+                else { Files.copy(path, copy); }
+            }
+        }
+        regionsFile = root.resolve("regions.data").toFile();
+    }
+
+    private static void check(boolean condition, String message){
+        if (!condition){ throw new AssertionError(message); }
+    }
+
+    //Tests
+    /**
+     * Regions are only loaded when a journey needs them, and a journey between regions
+     * is stitched together at the link
+     */
+    private void testCrossRegion() throws IOException{
+        RegionRegistry registry = RegionRegistry.load(regionsFile);
+        check(registry.getRegionNames().equals(new HashSet<String>(Arrays.asList(HOME, OTHER))), "cross region: regions "+registry.getRegionNames());
+        check(!registry.isLoaded(HOME) && !registry.isLoaded(OTHER), "cross region: loaded before use");
+
+        check(registry.earliestArrival(HOME, "Johnsonville", HOME, "Petone", 700) != -1, "cross region: no journey within Wellington");
+        check(registry.isLoaded(HOME) && !registry.isLoaded(OTHER), "cross region: Manawatu loaded for a Wellington journey");
+
+        // 05:52 from Wellington reaches Waikanae at 06:52, 5 minutes to change, 07:00 to Palmerston North at 08:15
+        int arrival = registry.earliestArrival(HOME, "Wellington", OTHER, "Palmerston-North", 550);
+        check(arrival == 815, "cross region: leaving 05:50 expected 815, found "+arrival);
+        // 06:20 reaches Waikanae at 07:20, too late for the 07:00, so the 09:00 at 10:15
+        arrival = registry.earliestArrival(HOME, "Wellington", OTHER, "Palmerston-North", 600);
+        check(arrival == 1015, "cross region: leaving 06:00 expected 1015, found "+arrival);
+        // 06:15 from Palmerston North reaches Waikanae at 07:30, then the 07:38 to Wellington at 08:35
+        arrival = registry.earliestArrival(OTHER, "Palmerston-North", HOME, "Wellington", 600);
+        check(arrival == 835, "cross region: return leaving 06:00 expected 835, found "+arrival);
+        check(registry.earliestArrival(HOME, "Wellington", OTHER, "Palmerston-North", 1900) == -1, "cross region: journey after the last train");
+        registry.unload(HOME);
+        registry.unload(OTHER);
+    }
+
+    /**
+     * Edits made to a region through its journal are kept when it is reloaded
+     */
+    private void testReloadKeepsEdits() throws IOException{
+        RegionRegistry registry = RegionRegistry.load(regionsFile);
+        ChangeJournal journal = registry.getRegion(OTHER).getJournal();
+        journal.addTrainService("Waikanae_Palmerston-North", new int[]{730, 745, 805, 820, 845});
+        journal.commit();
+
+        RegionRegistry.Region region = registry.reload(OTHER);
+        int services = region.getNetwork().getTrainLines().get("Waikanae_Palmerston-North").getTrainServices().size();
+        check(services == 5, "reload: expected 5 services, found "+services);
+        int arrival = registry.earliestArrival(HOME, "Wellington", OTHER, "Palmerston-North", 600);
+        check(arrival == 845, "reload: leaving 06:00 expected 845 on the new service, found "+arrival);
+        registry.unload(HOME);
+        registry.unload(OTHER);
+    }
+
+    /**
+     * Reloads, new links and journeys on several threads at once don't fail
+     */
+    private void testConcurrent() throws Exception{
+        RegionRegistry registry = RegionRegistry.load(regionsFile);
+        registry.loadAll(registry.getRegionNames());
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger journeys = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        long end = System.currentTimeMillis() + 2000;
+        for (int t = 0; t < 8; t++){
+            int task = t;
+            pool.execute(() -> {
+                int i = 0;
+                while (System.currentTimeMillis() < end){
+                    try {
+                        if (task == 0){ registry.reload(OTHER); }
+                        else if (task == 1){ registry.addLink(HOME, "Paraparaumu", OTHER, "Otaki", 60 + i++ % 30); }
+                        else {
+                            int arrival = registry.earliestArrival(HOME, "Wellington", OTHER, "Palmerston-North", 550);
+                            if (arrival != 815){ throw new IllegalStateException("arrived at "+arrival); }
+                            journeys.incrementAndGet();
+                        }
+                    }
+                    catch (RuntimeException ex){
+                        if (errors.incrementAndGet() == 1){ ex.printStackTrace(); }
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        check(errors.get() == 0, "concurrent: "+errors+" errors");
+        check(journeys.get() > 0, "concurrent: no journeys planned");
+        registry.unload(HOME);
+        registry.unload(OTHER);
+    }
+
+    /**
+     * main method runs each test on its own copy of the data files
+     */
+    public static void main(String[] args) throws Exception{
+        new RegionRegistryTest().testCrossRegion();
+        new RegionRegistryTest().testReloadKeepsEdits();
+        new RegionRegistryTest().testConcurrent();
+        System.out.println("RegionRegistryTest: all tests passed");
+    }
+
+}